@@ -1,8 +1,14 @@
 package ch.wisv.chpay.admin.controller;
 
 import ch.wisv.chpay.core.controller.PageController;
+import java.util.Set;
 
 abstract class AdminController extends PageController {
+  /** The page sizes the paged admin tables offer. */
+  static final Set<Integer> PAGE_SIZES = Set.of(10, 25, 50, 100);
+
+  static final int DEFAULT_PAGE_SIZE = 25;
+
   /** Model attr Url Page. */
   static final String MODEL_ATTR_USERS = "users";
 
@@ -10,6 +16,7 @@ abstract class AdminController extends PageController {
   static final String MODEL_ATTR_BALANCE = "balanceAvailable";
   static final String MODEL_ATTR_INCOMING = "incomingFunds";
   static final String MODEL_ATTR_OUTGOING = "outgoingFunds";
+  static final String MODEL_ATTR_REFUNDED = "refundedFunds";
   static final String MODEL_ATTR_MAIN_STAT = "mainStat";
   static final String MODEL_ATTR_SECOND_STAT = "secondStat";
   static final String MODEL_ATTR_STATS = "stats";
@@ -18,6 +25,9 @@ abstract class AdminController extends PageController {
   static final String MODEL_ATTR_REQUEST_ID = "requestId";
   static final String MODEL_ATTR_REFUND_POSSIBLE = "refundPossible";
   static final String MODEL_ATTR_USER = "user";
+  static final String MODEL_ATTR_QUERY = "query";
+  static final String MODEL_ATTR_FROM = "from";
+  static final String MODEL_ATTR_TO = "to";
   static final String MODEL_ATTR_ERROR_LOG = "errorLog";
   static final String MODEL_ATTR_TRANSACTIONS = "transactions";
   static final String MODEL_ATTR_PAYMENT_REQUESTS = "paymentRequests";
@@ -28,4 +38,9 @@ abstract class AdminController extends PageController {
   static final String MODEL_ATTR_BREADCRUMB_USER_NAME = "breadcrumbUserName";
   static final String MODEL_ATTR_BREADCRUMB_REQUEST_ID = "breadcrumbRequestId";
   static final String MODEL_ATTR_BREADCRUMB_REQUEST_DESCRIPTION = "breadcrumbRequestDescription";
+
+  /** The requested page size if the tables offer it, otherwise the default one. */
+  static int pageSize(int size) {
+    return PAGE_SIZES.contains(size) ? size : DEFAULT_PAGE_SIZE;
+  }
 }
@@ -1,9 +1,11 @@
 package ch.wisv.chpay.admin.controller;
 
-import ch.wisv.chpay.core.repository.TransactionRepository;
+import ch.wisv.chpay.core.repository.TransactionDailyTotalRepository;
 import ch.wisv.chpay.core.repository.UserRepository;
 import ch.wisv.chpay.core.service.SettingService;
 import ch.wisv.chpay.core.service.UserService;
+import java.time.LocalDate;
+import java.time.YearMonth;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -15,33 +17,43 @@ import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 @PreAuthorize("hasRole('ADMIN')")
 @RequestMapping("/admin")
 public class AdminDashboardController extends AdminController {
-  private final TransactionRepository transactionRepository;
+  private final TransactionDailyTotalRepository dailyTotalRepository;
   private final UserRepository userRepository;
   private final SettingService settingService;
   private final UserService userService;
 
   protected AdminDashboardController(
-      TransactionRepository transactionRepository,
+      TransactionDailyTotalRepository dailyTotalRepository,
       UserRepository userRepository,
       SettingService settingService,
       UserService userService) {
     super();
-    this.transactionRepository = transactionRepository;
+    this.dailyTotalRepository = dailyTotalRepository;
     this.userRepository = userRepository;
     this.settingService = settingService;
     this.userService = userService;
   }
 
+  /**
+   * Gets the admin dashboard. The transaction count and the statistics of the current month are
+   * read from the daily transaction totals, so they cost the same however much history there is.
+   */
   @GetMapping
   public String adminPage(Model model, RedirectAttributes redirectAttributes) {
+    YearMonth month = YearMonth.now();
+    LocalDate start = month.atDay(1);
+    LocalDate end = month.plusMonths(1).atDay(1);
+
     model.addAttribute(MODEL_ATTR_URL_PAGE, "admin");
     model.addAttribute(MODEL_ATTR_USERS, userService.countAll());
-    model.addAttribute(MODEL_ATTR_TRANSACTIONS, transactionRepository.count());
+    model.addAttribute(MODEL_ATTR_TRANSACTIONS, dailyTotalRepository.countTransactions());
     model.addAttribute(MODEL_ATTR_STATUS, settingService.isFrozen() ? "Frozen" : "Active");
     model.addAttribute(MODEL_ATTR_MAX_BALANCE, settingService.getMaxBalance());
     model.addAttribute(MODEL_ATTR_BALANCE, userRepository.getBalanceNow());
-    model.addAttribute(MODEL_ATTR_INCOMING, 0); // Removed statistics functionality
-    model.addAttribute(MODEL_ATTR_OUTGOING, 0); // Removed statistics functionality
+    model.addAttribute(MODEL_ATTR_INCOMING, dailyTotalRepository.getIncomingSum(start, end));
+    model.addAttribute(
+        MODEL_ATTR_OUTGOING, dailyTotalRepository.getPaymentSum(start, end).negate());
+    model.addAttribute(MODEL_ATTR_REFUNDED, dailyTotalRepository.getRefundSum(start, end));
     return "admin";
   }
 }
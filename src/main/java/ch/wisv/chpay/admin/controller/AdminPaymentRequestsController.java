@@ -1,16 +1,21 @@
 package ch.wisv.chpay.admin.controller;
 
 import ch.wisv.chpay.admin.service.AdminPaymentRequestService;
-import ch.wisv.chpay.core.model.PaymentRequest;
+import ch.wisv.chpay.core.dto.PaginationInfo;
+import ch.wisv.chpay.core.dto.PaymentRequestSummary;
 import jakarta.servlet.http.HttpServletRequest;
-import java.util.List;
+import java.time.LocalDate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
 @Controller
@@ -30,20 +35,50 @@ public class AdminPaymentRequestsController extends AdminController {
   }
 
   /**
-   * Gets the page showing all transactions for a given year and month.
+   * Gets a page of the payment request table, newest first.
    *
+   * @param status ALL, ACTIVE or EXPIRED
+   * @param from the first creation date to include, or absent
+   * @param to the last creation date to include, or absent
+   * @param query text to search descriptions for, or absent
+   * @param page the 1-based page number
+   * @param size the number of requests per page
    * @param model of type Model
    * @return String
    */
   @GetMapping
   public String getPage(
-      RedirectAttributes redirectAttributes, Model model, HttpServletRequest request) {
+      @RequestParam(defaultValue = "ALL") AdminPaymentRequestService.StatusFilter status,
+      @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+          LocalDate from,
+      @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+      @RequestParam(name = "q", required = false) String query,
+      @RequestParam(defaultValue = "1") int page,
+      @RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) int size,
+      RedirectAttributes redirectAttributes,
+      Model model,
+      HttpServletRequest request) {
+    size = pageSize(size);
 
-    // Get all payment requests
-    List<PaymentRequest> paymentRequests = adminPaymentRequestService.getAll();
+    Page<PaymentRequestSummary> paymentRequests =
+        adminPaymentRequestService.getPage(
+            status, from, to, query, PageRequest.of(Math.max(page, 1) - 1, size));
 
     // Add attributes to the model
-    model.addAttribute(MODEL_ATTR_PAYMENT_REQUESTS, paymentRequests);
+    model.addAttribute(MODEL_ATTR_PAYMENT_REQUESTS, paymentRequests.getContent());
+    model.addAttribute(
+        MODEL_ATTR_INFO,
+        new PaginationInfo(
+            paymentRequests.getNumber() + 1,
+            size,
+            paymentRequests.hasNext(),
+            paymentRequests.hasPrevious(),
+            paymentRequests.getTotalElements()));
+    model.addAttribute(MODEL_ATTR_TOTAL_ELEMENTS, paymentRequests.getTotalElements());
+    model.addAttribute(MODEL_ATTR_STATUS, status.name());
+    model.addAttribute(MODEL_ATTR_FROM, from);
+    model.addAttribute(MODEL_ATTR_TO, to);
+    model.addAttribute(MODEL_ATTR_QUERY, query == null ? "" : query.strip());
     model.addAttribute(MODEL_ATTR_URL_PAGE, "adminPaymentRequests");
     model.addAttribute(MODEL_ATTR_BASE_URL, baseUrl);
 
@@ -4,14 +4,14 @@ import ch.wisv.chpay.admin.service.AdminTransactionService;
 import ch.wisv.chpay.core.model.transaction.Transaction;
 import ch.wisv.chpay.core.service.CsvExportService;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
 import java.util.List;
-import java.util.stream.Collectors;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.InputStreamResource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -74,39 +74,31 @@ public class AdminTransactionsController extends BaseTransactionController {
     }
   }
 
+  /**
+   * Exports the booked transactions of a month as a CSV file, streamed to the response.
+   *
+   * @param yearMonth the month to export in format "YYYY-MM"
+   * @param response the response to write the file to
+   */
   @RequestMapping(value = "/csv")
-  public ResponseEntity<InputStreamResource> fooAsCSV(@RequestParam String yearMonth) {
+  public void fooAsCSV(@RequestParam String yearMonth, HttpServletResponse response)
+      throws IOException {
+    YearMonth selectedYearMonth;
     try {
-      YearMonth selectedYearMonth = YearMonth.parse(yearMonth);
-
-      List<Transaction> transactions =
-          adminTransactionService.getTransactionsByYearMonth(selectedYearMonth);
-      transactions =
-          transactions.stream()
-              .filter(
-                  t ->
-                      t.getStatus().equals(Transaction.TransactionStatus.SUCCESSFUL)
-                          || t.getStatus().equals(Transaction.TransactionStatus.PARTIALLY_REFUNDED)
-                          || t.getStatus().equals(Transaction.TransactionStatus.REFUNDED))
-              .collect(Collectors.toList());
-
-      byte[] csvBytes = csvExportService.generateCsv(transactions);
-      InputStreamResource fileInputStream =
-          new InputStreamResource(new java.io.ByteArrayInputStream(csvBytes));
+      selectedYearMonth = YearMonth.parse(yearMonth);
+    } catch (DateTimeParseException e) {
+      response.setHeader("Location", "/administrator/events/");
+      response.setStatus(HttpStatus.BAD_REQUEST.value());
+      return;
+    }
 
-      String filename = "chpay_" + selectedYearMonth + "_export.csv";
+    String filename = "chpay_" + selectedYearMonth + "_export.csv";
 
-      // setting HTTP headers
-      HttpHeaders headers = new HttpHeaders();
-      headers.set(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + filename);
-      // defining the custom Content-Type
-      headers.set(HttpHeaders.CONTENT_TYPE, "text/csv");
+    // setting HTTP headers
+    response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + filename);
+    // defining the custom Content-Type
+    response.setContentType("text/csv");
 
-      return new ResponseEntity<>(fileInputStream, headers, HttpStatus.OK);
-    } catch (Exception e) {
-      HttpHeaders headers = new HttpHeaders();
-      headers.add("Location", "/administrator/events/");
-      return new ResponseEntity<>(headers, HttpStatus.BAD_REQUEST);
-    }
+    csvExportService.writeMonthCsv(selectedYearMonth, response.getOutputStream());
   }
 }
@@ -55,9 +55,21 @@ public class AdminUserController extends AdminController {
     return "admin-user";
   }
 
+  /**
+   * Displays the balance history of a user.
+   *
+   * @param model the Model object to add attributes for the view
+   * @param userKey the unique identifier of the user in String format
+   * @param resolution how finely to sample the history, or absent to choose based on its size
+   * @param redirectAttributes the RedirectAttributes object used for passing flash attributes
+   * @return the name of the view to render the statistics page
+   */
   @GetMapping(value = "/{userKey}/stats")
   public String showUserStatPage(
-      Model model, @PathVariable String userKey, RedirectAttributes redirectAttributes) {
+      Model model,
+      @PathVariable String userKey,
+      @RequestParam(required = false) AdminUserService.Resolution resolution,
+      RedirectAttributes redirectAttributes) {
     model.addAttribute(MODEL_ATTR_URL_PAGE, "adminUsers");
 
     // get the user instance
@@ -67,9 +79,11 @@ public class AdminUserController extends AdminController {
     }
     model.addAttribute(MODEL_ATTR_USER, user);
 
-    // Calculate balance over time using AdminUserService
-    List<BalanceEntry> balanceHistory = adminUserService.calculateUserBalanceHistory(user);
+    // Read the balance over time from the balance ledger
+    List<BalanceEntry> balanceHistory =
+        adminUserService.getUserBalanceHistory(user.getId(), resolution);
     model.addAttribute("balanceHistory", balanceHistory);
+    model.addAttribute("balanceChanges", adminUserService.countBalanceChanges(user.getId()));
 
     // Enable charts for this page
     model.addAttribute("hasCharts", true);
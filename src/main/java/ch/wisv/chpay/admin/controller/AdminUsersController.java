@@ -1,14 +1,20 @@
 package ch.wisv.chpay.admin.controller;
 
+import ch.wisv.chpay.core.dto.PaginationInfo;
+import ch.wisv.chpay.core.model.User;
 import ch.wisv.chpay.core.service.NotificationService;
 import ch.wisv.chpay.core.service.UserService;
-import java.time.format.DateTimeParseException;
+import java.util.Map;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
 @Controller
@@ -16,6 +22,10 @@ import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 @RequestMapping("/admin/users")
 public class AdminUsersController extends AdminController {
 
+  /** The columns the user table can be sorted on, mapped to the properties of {@link User}. */
+  private static final Map<String, String> SORT_PROPERTIES =
+      Map.of("name", "name", "email", "email", "balance", "balance", "banned", "banned");
+
   private final UserService userService;
   private final NotificationService notificationService;
 
@@ -27,17 +37,56 @@ public class AdminUsersController extends AdminController {
   }
 
   /**
-   * Gets the page showing all users for the administrator and sort it.
+   * Gets a page of the user table for the administrator. Searching, sorting and paging are done by
+   * the database, so only the users on the page are loaded.
    *
+   * @param query text to search names, emails and RFIDs for, or absent for all users
+   * @param sortBy the column to sort on: name, email, balance or banned
+   * @param order asc or desc
+   * @param page the 1-based page number
+   * @param size the number of users per page
    * @param model of type Model
    * @return String
    */
   @GetMapping
-  public String getPage(RedirectAttributes redirectAttributes, Model model)
-      throws DateTimeParseException {
+  public String getPage(
+      @RequestParam(name = "q", required = false) String query,
+      @RequestParam(defaultValue = "name") String sortBy,
+      @RequestParam(defaultValue = "asc") String order,
+      @RequestParam(defaultValue = "1") int page,
+      @RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) int size,
+      RedirectAttributes redirectAttributes,
+      Model model) {
+    if (!SORT_PROPERTIES.containsKey(sortBy)) {
+      sortBy = "name";
+    }
+    if (!order.equals("desc")) {
+      order = "asc";
+    }
+    size = pageSize(size);
+
+    Sort sort =
+        Sort.by(
+                order.equals("asc") ? Sort.Direction.ASC : Sort.Direction.DESC,
+                SORT_PROPERTIES.get(sortBy))
+            .and(Sort.by("id"));
+    Page<User> users =
+        userService.searchUsers(query, PageRequest.of(Math.max(page, 1) - 1, size, sort));
 
     model.addAttribute(MODEL_ATTR_URL_PAGE, "adminUsers");
-    model.addAttribute(MODEL_ATTR_USERS, userService.getAllUsers());
+    model.addAttribute(MODEL_ATTR_USERS, users.getContent());
+    model.addAttribute(
+        MODEL_ATTR_INFO,
+        new PaginationInfo(
+            users.getNumber() + 1,
+            size,
+            users.hasNext(),
+            users.hasPrevious(),
+            users.getTotalElements()));
+    model.addAttribute(MODEL_ATTR_TOTAL_ELEMENTS, users.getTotalElements());
+    model.addAttribute(MODEL_ATTR_QUERY, query == null ? "" : query.strip());
+    model.addAttribute(MODEL_ATTR_SORTBY, sortBy);
+    model.addAttribute(MODEL_ATTR_ORDER, order);
     return "admin-user-table";
   }
 }
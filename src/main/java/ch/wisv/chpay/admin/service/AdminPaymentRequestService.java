@@ -1,12 +1,20 @@
 package ch.wisv.chpay.admin.service;
 
+import ch.wisv.chpay.core.dto.PaymentRequestSummary;
 import ch.wisv.chpay.core.model.PaymentRequest;
+import ch.wisv.chpay.core.repository.LikePatterns;
 import ch.wisv.chpay.core.repository.RequestRepository;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -14,6 +22,11 @@ import org.springframework.transaction.annotation.Transactional;
 @Service
 public class AdminPaymentRequestService {
 
+  /** Bounds of the creation date range when no dates are given. */
+  private static final LocalDateTime NO_START = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+  private static final LocalDateTime NO_END = LocalDateTime.of(9999, 1, 1, 0, 0);
+
   private final RequestRepository requestRepository;
 
   @Autowired
@@ -21,15 +34,50 @@ public class AdminPaymentRequestService {
     this.requestRepository = requestRepository;
   }
 
+  /** Which payment requests a listing includes. */
+  public enum StatusFilter {
+    ALL,
+    ACTIVE,
+    EXPIRED
+  }
+
   /**
-   * Gets all PaymentRequest.
+   * Gets a page of payment requests, newest first, together with their fulfilments and the totals
+   * of their payments and refunds, all computed by a single query.
    *
-   * @return a list of PaymentRequest objects for the specified month
+   * @param status whether to include active requests, expired requests or both
+   * @param from the first day of the creation date range, or null for no lower bound
+   * @param to the last day of the creation date range, or null for no upper bound
+   * @param query text the description must contain, or null or blank for any description
+   * @param pageable the page to get; its sort is ignored
+   * @return the page of payment request summaries
    */
   @Transactional(readOnly = true)
   @PreAuthorize("hasRole('ADMIN')")
-  public List<PaymentRequest> getAll() {
-    return requestRepository.findAll(Sort.by(Sort.Direction.DESC, "createdAt"));
+  public Page<PaymentRequestSummary> getPage(
+      StatusFilter status, LocalDate from, LocalDate to, String query, Pageable pageable) {
+    LocalDateTime start = from != null ? from.atStartOfDay() : NO_START;
+    LocalDateTime end = to != null ? to.plusDays(1).atStartOfDay() : NO_END;
+    boolean includeActive = status != StatusFilter.EXPIRED;
+    boolean includeExpired = status != StatusFilter.ACTIVE;
+    String pattern = LikePatterns.containing(query);
+
+    List<PaymentRequestSummary> summaries =
+        requestRepository
+            .findSummaries(
+                start,
+                end,
+                includeActive,
+                includeExpired,
+                pattern,
+                pageable.getPageSize(),
+                pageable.getOffset())
+            .stream()
+            .map(AdminPaymentRequestService::toSummary)
+            .toList();
+    long total =
+        requestRepository.countSummaries(start, end, includeActive, includeExpired, pattern);
+    return new PageImpl<>(summaries, pageable, total);
   }
 
   public Optional<PaymentRequest> getById(UUID id) {
@@ -40,4 +88,17 @@ public class AdminPaymentRequestService {
     paymentRequest.setExpired(true);
     return requestRepository.save(paymentRequest);
   }
+
+  private static PaymentRequestSummary toSummary(Object[] row) {
+    return new PaymentRequestSummary(
+        (UUID) row[0],
+        row[1] instanceof Timestamp ts ? ts.toLocalDateTime() : (LocalDateTime) row[1],
+        (String) row[2],
+        (BigDecimal) row[3],
+        (Boolean) row[4],
+        (Boolean) row[5],
+        ((Number) row[6]).intValue(),
+        (BigDecimal) row[7],
+        (BigDecimal) row[8]);
+  }
 }
@@ -1,11 +1,13 @@
 package ch.wisv.chpay.admin.service;
 
+import ch.wisv.chpay.core.model.TransactionMonth;
 import ch.wisv.chpay.core.model.transaction.Transaction;
 import ch.wisv.chpay.core.repository.TransactionRepository;
+import ch.wisv.chpay.core.service.TransactionMonthService;
+import java.time.LocalDateTime;
 import java.time.YearMonth;
 import java.util.List;
 import java.util.UUID;
-import java.util.stream.Collectors;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Service;
@@ -15,10 +17,14 @@ import org.springframework.transaction.annotation.Transactional;
 public class AdminTransactionService {
 
   private final TransactionRepository transactionRepository;
+  private final TransactionMonthService transactionMonthService;
 
   @Autowired
-  public AdminTransactionService(TransactionRepository transactionRepository) {
+  public AdminTransactionService(
+      TransactionRepository transactionRepository,
+      TransactionMonthService transactionMonthService) {
     this.transactionRepository = transactionRepository;
+    this.transactionMonthService = transactionMonthService;
   }
 
   /**
@@ -30,8 +36,8 @@ public class AdminTransactionService {
   @Transactional(readOnly = true)
   @PreAuthorize("hasRole('ADMIN')")
   public List<Transaction> getTransactionsByYearMonth(YearMonth yearMonth) {
-    return transactionRepository.findTransactionsByYearAndMonth(
-        yearMonth.getYear(), yearMonth.getMonthValue());
+    return transactionRepository.findTransactionsBetween(
+        monthStart(yearMonth), monthStart(yearMonth.plusMonths(1)));
   }
 
   /**
@@ -42,11 +48,8 @@ public class AdminTransactionService {
   @Transactional(readOnly = true)
   @PreAuthorize("hasRole('ADMIN')")
   public List<YearMonth> getAllPossibleMonths() {
-    List<Object[]> yearMonthCombinations =
-        transactionRepository.findDistinctYearMonthCombinations();
-    return yearMonthCombinations.stream()
-        .map(obj -> YearMonth.of((Integer) obj[0], (Integer) obj[1]))
-        .collect(Collectors.toList());
+    return transactionMonthService.getMonths(
+        TransactionMonth.Scope.GLOBAL, TransactionMonth.GLOBAL_ID);
   }
 
   /**
@@ -57,11 +60,8 @@ public class AdminTransactionService {
   @Transactional(readOnly = true)
   @PreAuthorize("hasRole('ADMIN')")
   public YearMonth getMostRecentYearMonth() {
-    List<YearMonth> availableMonths = getAllPossibleMonths();
-    if (!availableMonths.isEmpty()) {
-      return availableMonths.get(0); // First item since ordered DESC
-    }
-    return YearMonth.now(); // Fallback to current month
+    return transactionMonthService.getMostRecentMonth(
+        TransactionMonth.Scope.GLOBAL, TransactionMonth.GLOBAL_ID);
   }
 
   public List<Transaction> getTransactionsByRequestId(UUID requestId) {
@@ -90,8 +90,8 @@ public class AdminTransactionService {
   @Transactional(readOnly = true)
   @PreAuthorize("hasRole('ADMIN')")
   public List<Transaction> getTransactionsByUserIdAndYearMonth(UUID userId, YearMonth yearMonth) {
-    return transactionRepository.findTransactionsByUserIdAndYearMonth(
-        userId, yearMonth.getYear(), yearMonth.getMonthValue());
+    return transactionRepository.findTransactionsByUserIdBetween(
+        userId, monthStart(yearMonth), monthStart(yearMonth.plusMonths(1)));
   }
 
   /**
@@ -105,8 +105,8 @@ public class AdminTransactionService {
   @PreAuthorize("hasRole('ADMIN')")
   public List<Transaction> getTransactionsByRequestIdAndYearMonth(
       UUID requestId, YearMonth yearMonth) {
-    return transactionRepository.findTransactionsByRequestIdAndYearMonth(
-        requestId, yearMonth.getYear(), yearMonth.getMonthValue());
+    return transactionRepository.findTransactionsByRequestIdBetween(
+        requestId, monthStart(yearMonth), monthStart(yearMonth.plusMonths(1)));
   }
 
   /**
@@ -118,11 +118,7 @@ public class AdminTransactionService {
   @Transactional(readOnly = true)
   @PreAuthorize("hasRole('ADMIN')")
   public List<YearMonth> getAllPossibleMonthsForUser(UUID userId) {
-    List<Object[]> yearMonthCombinations =
-        transactionRepository.findDistinctYearMonthCombinationsByUserId(userId);
-    return yearMonthCombinations.stream()
-        .map(obj -> YearMonth.of((Integer) obj[0], (Integer) obj[1]))
-        .collect(Collectors.toList());
+    return transactionMonthService.getMonths(TransactionMonth.Scope.USER, userId);
   }
 
   /**
@@ -135,11 +131,7 @@ public class AdminTransactionService {
   @Transactional(readOnly = true)
   @PreAuthorize("hasRole('ADMIN')")
   public List<YearMonth> getAllPossibleMonthsForRequest(UUID requestId) {
-    List<Object[]> yearMonthCombinations =
-        transactionRepository.findDistinctYearMonthCombinationsByRequestId(requestId);
-    return yearMonthCombinations.stream()
-        .map(obj -> YearMonth.of((Integer) obj[0], (Integer) obj[1]))
-        .collect(Collectors.toList());
+    return transactionMonthService.getMonths(TransactionMonth.Scope.REQUEST, requestId);
   }
 
   /**
@@ -152,11 +144,7 @@ public class AdminTransactionService {
   @Transactional(readOnly = true)
   @PreAuthorize("hasRole('ADMIN')")
   public YearMonth getMostRecentYearMonthForUser(UUID userId) {
-    List<YearMonth> availableMonths = getAllPossibleMonthsForUser(userId);
-    if (!availableMonths.isEmpty()) {
-      return availableMonths.get(0); // First item since ordered DESC
-    }
-    return YearMonth.now(); // Fallback to current month
+    return transactionMonthService.getMostRecentMonth(TransactionMonth.Scope.USER, userId);
   }
 
   /**
@@ -169,10 +157,14 @@ public class AdminTransactionService {
   @Transactional(readOnly = true)
   @PreAuthorize("hasRole('ADMIN')")
   public YearMonth getMostRecentYearMonthForRequest(UUID requestId) {
-    List<YearMonth> availableMonths = getAllPossibleMonthsForRequest(requestId);
-    if (!availableMonths.isEmpty()) {
-      return availableMonths.get(0); // First item since ordered DESC
-    }
-    return YearMonth.now(); // Fallback to current month
+    return transactionMonthService.getMostRecentMonth(TransactionMonth.Scope.REQUEST, requestId);
+  }
+
+  /**
+   * Gets the first moment of a month. Months are queried as the range [start of the month, start
+   * of the next month), which unlike YEAR()/MONTH() on the column can use the timestamp indexes.
+   */
+  private static LocalDateTime monthStart(YearMonth yearMonth) {
+    return yearMonth.atDay(1).atStartOfDay();
   }
 }
@@ -1,77 +1,104 @@
 package ch.wisv.chpay.admin.service;
 
 import ch.wisv.chpay.admin.model.BalanceEntry;
-import ch.wisv.chpay.core.model.User;
-import ch.wisv.chpay.core.model.transaction.Transaction;
-import ch.wisv.chpay.core.service.TransactionService;
+import ch.wisv.chpay.core.model.BalanceHistoryPoint;
+import ch.wisv.chpay.core.repository.BalanceLedgerRepository;
 import java.math.BigDecimal;
-import java.util.ArrayList;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 /** Service for handling admin user-related operations. */
 @Service
 public class AdminUserService {
 
-  private final TransactionService transactionService;
+  /** Number of points above which the balance chart is drawn from daily or weekly buckets. */
+  static final int MAX_CHART_POINTS = 500;
 
-  @Autowired
-  public AdminUserService(TransactionService transactionService) {
-    this.transactionService = transactionService;
+  /** How finely a balance history is sampled. */
+  public enum Resolution {
+    /** Every balance change. */
+    ENTRY,
+    /** The balance at the end of every day it changed. */
+    DAY,
+    /** The balance at the end of every week it changed. */
+    WEEK
   }
 
-  /**
-   * Calculates a user's balance history by processing their transactions chronologically.
-   *
-   * @param user the user to calculate balance history for
-   * @return list of balance entries showing balance progression over time
-   */
-  public List<BalanceEntry> calculateUserBalanceHistory(User user) {
-    List<Transaction> transactions = transactionService.getTransactionsForUser(user);
-    transactions.sort((t1, t2) -> t1.getTimestamp().compareTo(t2.getTimestamp()));
-    return calculateBalanceOverTime(transactions);
+  private final BalanceLedgerRepository ledgerRepository;
+
+  @Autowired
+  public AdminUserService(BalanceLedgerRepository ledgerRepository) {
+    this.ledgerRepository = ledgerRepository;
   }
 
   /**
-   * Processes a list of transactions chronologically to build balance history. Only includes
-   * transactions that affect the balance (successful, refunded, partially refunded).
+   * Gets a user's balance history from the balance ledger, which stores the balance after every
+   * change, so nothing has to be replayed. When no resolution is given, every change is returned
+   * unless there are more than {@link #MAX_CHART_POINTS}, in which case the history is reduced to
+   * daily or, if that is still too many, weekly balances.
    *
-   * @param transactions list of transactions sorted by timestamp
-   * @return list of balance entries showing balance progression over time
+   * @param userId the id of the user
+   * @param resolution the resolution to sample at, or null to choose one
+   * @return balance entries showing the balance progression over time, oldest first
    */
-  public List<BalanceEntry> calculateBalanceOverTime(List<Transaction> transactions) {
-    List<BalanceEntry> balanceHistory = new ArrayList<>();
-    BigDecimal currentBalance = BigDecimal.ZERO;
-
-    for (Transaction transaction : transactions) {
-      if (isTransactionIncludedInBalance(transaction.getStatus())) {
-        BigDecimal amount = transaction.getAmount();
-        currentBalance = currentBalance.add(amount != null ? amount : BigDecimal.ZERO);
+  @Transactional(readOnly = true)
+  public List<BalanceEntry> getUserBalanceHistory(UUID userId, Resolution resolution) {
+    if (resolution == null) {
+      resolution =
+          countBalanceChanges(userId) <= MAX_CHART_POINTS ? Resolution.ENTRY : Resolution.DAY;
+    }
 
-        balanceHistory.add(
-            new BalanceEntry(
-                transaction.getTimestamp(),
-                currentBalance,
-                transaction.getId().toString(),
-                transaction.getDescription(),
-                transaction.getType().toString()));
-      }
+    if (resolution == Resolution.ENTRY) {
+      return ledgerRepository.findHistoryForUser(userId).stream()
+          .map(AdminUserService::toBalanceEntry)
+          .toList();
     }
 
-    return balanceHistory;
+    List<BalanceEntry> history = getBucketedHistory(userId, resolution);
+    if (history.size() > MAX_CHART_POINTS && resolution == Resolution.DAY) {
+      history = getBucketedHistory(userId, Resolution.WEEK);
+    }
+    return history;
   }
 
   /**
-   * Determines if a transaction should be included in balance calculation. Includes successful
-   * transactions and transactions that were later refunded.
+   * Gets the number of times a user's balance was changed by a transaction.
    *
-   * @param status the transaction status to check
-   * @return true if the transaction affects the balance
+   * @param userId the id of the user
+   * @return the number of balance changes
    */
-  private boolean isTransactionIncludedInBalance(Transaction.TransactionStatus status) {
-    return status == Transaction.TransactionStatus.SUCCESSFUL
-        || status == Transaction.TransactionStatus.REFUNDED
-        || status == Transaction.TransactionStatus.PARTIALLY_REFUNDED;
+  @Transactional(readOnly = true)
+  public long countBalanceChanges(UUID userId) {
+    return ledgerRepository.countByUserIdAndTransactionIdIsNotNull(userId);
+  }
+
+  private List<BalanceEntry> getBucketedHistory(UUID userId, Resolution resolution) {
+    return ledgerRepository
+        .findBucketedHistoryForUser(userId, resolution.name().toLowerCase(Locale.ROOT))
+        .stream()
+        .map(
+            row ->
+                new BalanceEntry(
+                    row[0] instanceof Timestamp ts ? ts.toLocalDateTime() : (LocalDateTime) row[0],
+                    (BigDecimal) row[1],
+                    null,
+                    null,
+                    null))
+        .toList();
+  }
+
+  private static BalanceEntry toBalanceEntry(BalanceHistoryPoint point) {
+    return new BalanceEntry(
+        point.getTimestamp(),
+        point.getBalance(),
+        point.getTransactionId() != null ? point.getTransactionId().toString() : null,
+        point.getDescription(),
+        point.getType() != null ? point.getType().toString() : null);
   }
 }
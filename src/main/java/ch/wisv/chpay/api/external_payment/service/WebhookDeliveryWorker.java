@@ -0,0 +1,184 @@
+package ch.wisv.chpay.api.external_payment.service;
+
+import ch.wisv.chpay.core.model.PendingWebhook;
+import ch.wisv.chpay.core.repository.PendingWebhookRepository;
+import ch.wisv.chpay.core.service.LeasedQueueWorker;
+import ch.wisv.chpay.core.service.WebhookOutboxService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.client.RestTemplate;
+
+@Component
+public class WebhookDeliveryWorker extends LeasedQueueWorker<PendingWebhook> {
+
+  private static final Logger logger = LoggerFactory.getLogger(WebhookDeliveryWorker.class);
+
+  private final PendingWebhookRepository webhookRepo;
+  private final RestTemplate restTemplate;
+  private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+  private final Timer latencyTimer;
+  private final Counter failedCounter;
+
+  @Value("${chpay.webhooks.batch_size:100}")
+  private int batchSize;
+
+  @Value("${chpay.webhooks.per_host_concurrency:4}")
+  private int perHostConcurrency;
+
+  @Value("${chpay.webhooks.lease_seconds:300}")
+  private long leaseSeconds;
+
+  @Value("${chpay.webhooks.connect_timeout_seconds:5}")
+  private long connectTimeoutSeconds;
+
+  @Value("${chpay.webhooks.read_timeout_seconds:10}")
+  private long readTimeoutSeconds;
+
+  public WebhookDeliveryWorker(
+      PendingWebhookRepository webhookRepo,
+      RestTemplate restTemplate,
+      PlatformTransactionManager transactionManager,
+      MeterRegistry meterRegistry) {
+    super(transactionManager);
+    this.webhookRepo = webhookRepo;
+    this.restTemplate = restTemplate;
+    this.latencyTimer =
+        Timer.builder("chpay.webhooks.delivery.latency")
+            .description("Time from queueing a webhook until CH Events accepted it")
+            .register(meterRegistry);
+    this.failedCounter =
+        Counter.builder("chpay.webhooks.failed")
+            .description("Webhooks given up on after the maximum number of attempts")
+            .register(meterRegistry);
+  }
+
+  /**
+   * Schedules a task to deliver pending webhooks to CH Events. Runs every minute and claims up to
+   * chpay.webhooks.batch_size due webhooks with a lease, see {@link LeasedQueueWorker} and {@link
+   * #lease()}. The claimed webhooks are posted concurrently on virtual threads, with at most
+   * chpay.webhooks.per_host_concurrency requests in flight per host.
+   */
+  @Scheduled(fixedDelay = 60000) // every 60 seconds
+  public void deliverPendingWebhooks() {
+    run();
+  }
+
+  /**
+   * Starts delivering a webhook as soon as the transaction that queued it has committed, instead
+   * of at the next scheduled run.
+   *
+   * @param event the queued webhook
+   */
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onWebhookQueued(WebhookOutboxService.WebhookQueued event) {
+    runAsync();
+  }
+
+  @Override
+  protected int batchSize() {
+    return batchSize;
+  }
+
+  @Override
+  protected List<PendingWebhook> lockDue(Instant now, int limit) {
+    return webhookRepo.lockDue(now, limit);
+  }
+
+  @Override
+  protected void setNextAttempt(PendingWebhook wh, Instant nextAttempt) {
+    wh.setNextAttempt(nextAttempt);
+  }
+
+  @Override
+  protected void process(List<PendingWebhook> batch) {
+    CompletableFuture.allOf(
+            batch.stream()
+                .map(wh -> CompletableFuture.runAsync(() -> deliver(wh), executor))
+                .toArray(CompletableFuture[]::new))
+        .join();
+  }
+
+  /**
+   * How long claimed webhooks are leased for. When a whole batch goes to one host, its webhooks are
+   * posted per_host_concurrency at a time and each post can take up to the connect and read
+   * timeouts, so the lease covers that many rounds plus one, or lease_seconds if that is longer.
+   * A shorter lease would let another instance claim webhooks that are still waiting for a permit
+   * here and post them twice.
+   */
+  @Override
+  protected Duration lease() {
+    long rounds = (batchSize + perHostConcurrency - 1) / perHostConcurrency + 1;
+    long worstCase = rounds * (connectTimeoutSeconds + readTimeoutSeconds);
+    return Duration.ofSeconds(Math.max(leaseSeconds, worstCase));
+  }
+
+  private void deliver(PendingWebhook wh) {
+    Semaphore permits =
+        hostPermits.computeIfAbsent(
+            hostOf(wh.getWebhookUrl()), host -> new Semaphore(perHostConcurrency));
+    try {
+      permits.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+
+    try {
+      HttpHeaders headers = new HttpHeaders();
+      headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+      HttpEntity<String> form = new HttpEntity<>(wh.getPayload(), headers);
+
+      restTemplate.postForEntity(wh.getWebhookUrl(), form, String.class);
+
+      wh.setStatus(PendingWebhook.Status.SENT);
+      if (wh.getCreatedAt() != null) {
+        latencyTimer.record(Duration.between(wh.getCreatedAt(), Instant.now()));
+      }
+    } catch (Exception e) {
+      int retries = wh.getRetryCount() + 1;
+      wh.setRetryCount(retries);
+
+      if (!retryLater(wh, retries)) {
+        wh.setStatus(PendingWebhook.Status.FAILED);
+        failedCounter.increment();
+        logger.error(
+            "Failed to deliver webhook with transaction {} after {} attempts",
+            wh.getPayload(),
+            retries,
+            e);
+      }
+    } finally {
+      permits.release();
+    }
+
+    webhookRepo.save(wh);
+  }
+
+  private static String hostOf(String url) {
+    try {
+      String host = URI.create(url).getHost();
+      return host != null ? host : url;
+    } catch (IllegalArgumentException e) {
+      return url;
+    }
+  }
+}
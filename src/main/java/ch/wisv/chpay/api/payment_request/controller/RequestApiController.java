@@ -1,8 +1,9 @@
 package ch.wisv.chpay.api.payment_request.controller;
 
+import ch.wisv.chpay.core.dto.RequestPaymentItem;
 import ch.wisv.chpay.core.model.transaction.Transaction;
 import ch.wisv.chpay.core.repository.TransactionRepository;
-import java.time.format.DateTimeFormatter;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -11,6 +12,7 @@ import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 @RestController
@@ -24,31 +26,29 @@ public class RequestApiController {
   }
 
   /**
-   * GET /api/requests/{requestId}/successful-payments
+   * GET /api/requests/{requestId}/successful-payments?after={cursor}
    *
-   * <p>Returns JSON array of all successful payments for that request: [ { "transactionId": "...",
-   * "payerName": "Alice Doe", "amount": "17.50", "timestamp": "2025-06-04T12:07:15" }, ... ]
+   * <p>Returns JSON array of the successful payments for that request that were paid after the
+   * given cursor, in the order they were paid: [ { "transactionId": "...", "payerName": "Alice
+   * Doe", "amount": "17.50", "timestamp": "2025-06-04T12:07:15", "cursor": "42" }, ... ]. Without
+   * a cursor all successful payments are returned; pollers pass the highest cursor they received
+   * to only get the new ones. Payments of the last minute are returned again, so one that commits
+   * after a payment with a higher cursor is not skipped; pollers drop those they have already seen
+   * by transactionId.
    */
   @PreAuthorize("hasRole('API_USER')")
   @GetMapping("/{requestId}/successful-payments")
   public List<Map<String, String>> getSuccessfulPayments(
-      @PathVariable("requestId") UUID requestId) {
-
-    // Fetch all SUCCESSFUL transactions for this request, ordered by timestamp
-    List<Transaction> payments =
-        transactionRepository.findAllSuccessfulForRequest(
-            requestId, Transaction.TransactionStatus.SUCCESSFUL);
-
-    // Map each Transaction → minimal JSON containing only what the client needs
-    DateTimeFormatter fmt = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
-    return payments.stream()
-        .map(
-            tx ->
-                Map.<String, String>of(
-                    "transactionId", tx.getId().toString(),
-                    "payerName", tx.getUser().getName(),
-                    "amount", tx.getAmount().abs().toPlainString(),
-                    "timestamp", tx.getTimestamp().format(fmt)))
+      @PathVariable("requestId") UUID requestId,
+      @RequestParam(name = "after", defaultValue = "0") long after) {
+    return transactionRepository
+        .findPaymentsForRequestAfter(
+            requestId,
+            Transaction.TransactionStatus.SUCCESSFUL,
+            after,
+            LocalDateTime.now().minus(RequestPaymentItem.CURSOR_OVERLAP))
+        .stream()
+        .map(RequestPaymentItem::toJson)
         .collect(Collectors.toList());
   }
 }
@@ -1,10 +1,13 @@
 package ch.wisv.chpay.api.rfid.contoller;
 
+import ch.wisv.chpay.api.rfid.model.RfidTap;
+import ch.wisv.chpay.api.rfid.model.RfidTapResult;
 import ch.wisv.chpay.api.rfid.service.RfidPaymentService;
 import ch.wisv.chpay.core.exception.InsufficientBalanceException;
 import ch.wisv.chpay.core.model.User;
 import ch.wisv.chpay.core.repository.UserRepository;
 import ch.wisv.chpay.core.service.UserService;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
@@ -43,16 +46,22 @@ public class RfidApiController {
    * such as insufficient balance or invalid request 404 Not Found - if no user is found for the
    * given RFID 500 Internal Server Error - for any unexpected server-side error
    *
+   * <p>An optional clientTapId makes a resent tap return the outcome of the first attempt instead
+   * of charging the card again.
+   *
    * @param rfid the RFID tag used to identify the user
    * @param requestId the UUID of the payment request
+   * @param clientTapId id the terminal gave to the tap, if any
    * @return a {@code ResponseEntity} containing a message and status information
    */
   @PreAuthorize("hasRole('API_USER')")
   @PostMapping("/{rfid}/pay/{requestId}")
   public ResponseEntity<Map<String, String>> payWithRfid(
-      @PathVariable String rfid, @PathVariable UUID requestId) {
+      @PathVariable String rfid,
+      @PathVariable UUID requestId,
+      @RequestParam(required = false) String clientTapId) {
     log.info("RFID payment requested: rfid={} requestId={}", rfid, requestId);
-    User user = userRepository.findByRfid(rfid).orElse(null);
+    User user = userRepository.findIdByRfid(rfid).flatMap(userRepository::findById).orElse(null);
     if (user == null) {
       log.warn("No user found for RFID {}", rfid);
       return ResponseEntity.status(404)
@@ -60,7 +69,7 @@ public class RfidApiController {
     }
 
     try {
-      String userName = paymentService.payFromRequest(user, requestId);
+      String userName = paymentService.payTap(user, requestId, clientTapId);
       return ResponseEntity.ok(
           Map.of("type", "message", "message", userName + "'s payment is processing..."));
 
@@ -78,6 +87,27 @@ public class RfidApiController {
     }
   }
 
+  /**
+   * Handles a batch of card taps that a terminal buffered while it could not reach the server.
+   *
+   * <p>Path: POST /api/rfid/batch, with a JSON array of {"rfid", "requestId", "clientTapId"}
+   * objects in the order the taps were made.
+   *
+   * <p>Returns 200 with one {"clientTapId","type","message","transactionId"} result per tap, in
+   * the same order. Sending a tap again with the same clientTapId returns the result of the first
+   * attempt instead of charging the card again, so a terminal can safely resend a batch whose
+   * response it did not receive.
+   *
+   * @param taps the buffered taps
+   * @return a JSON array with the result of every tap
+   */
+  @PreAuthorize("hasRole('API_USER')")
+  @PostMapping(path = "/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<List<RfidTapResult>> payBatch(@RequestBody List<RfidTap> taps) {
+    log.info("RFID batch payment requested: {} taps", taps.size());
+    return ResponseEntity.ok(paymentService.payBatch(taps));
+  }
+
   /**
    * Changes a given user's RFID with the new RFID provided by JavaScript. Checks if the RFID is
    * already taken to better handle exceptions that will be thrown due to the unique constraint.
@@ -0,0 +1,16 @@
+package ch.wisv.chpay.api.rfid.model;
+
+import java.util.UUID;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/** A card tap buffered by a terminal, as sent in a batch. */
+@Data
+@NoArgsConstructor
+public class RfidTap {
+  private String rfid;
+  private UUID requestId;
+
+  /** Id the terminal generated for this tap; sending the same id again does not charge twice. */
+  private String clientTapId;
+}
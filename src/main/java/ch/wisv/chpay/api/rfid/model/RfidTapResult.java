@@ -0,0 +1,23 @@
+package ch.wisv.chpay.api.rfid.model;
+
+import lombok.Data;
+
+/** Outcome of one tap of a batch, in the same type/message form as the single-tap endpoint. */
+@Data
+public class RfidTapResult {
+  private String clientTapId;
+  private String type;
+  private String message;
+  private String transactionId;
+
+  public RfidTapResult(String clientTapId, String type, String message, String transactionId) {
+    this.clientTapId = clientTapId;
+    this.type = type;
+    this.message = message;
+    this.transactionId = transactionId;
+  }
+
+  public static RfidTapResult error(String clientTapId, String message) {
+    return new RfidTapResult(clientTapId, "error", message, null);
+  }
+}
@@ -1,24 +1,113 @@
 package ch.wisv.chpay.api.rfid.service;
 
+import ch.wisv.chpay.api.rfid.model.RfidTap;
+import ch.wisv.chpay.api.rfid.model.RfidTapResult;
 import ch.wisv.chpay.core.exception.InsufficientBalanceException;
 import ch.wisv.chpay.core.model.PaymentRequest;
 import ch.wisv.chpay.core.model.User;
 import ch.wisv.chpay.core.model.transaction.PaymentTransaction;
+import ch.wisv.chpay.core.repository.UserRepository;
+import ch.wisv.chpay.core.service.DirectPaymentService;
 import ch.wisv.chpay.core.service.RequestService;
 import ch.wisv.chpay.core.service.TransactionService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 @Service
 public class RfidPaymentService {
+  private static final Logger log = LoggerFactory.getLogger(RfidPaymentService.class);
+
   private final RequestService requestService;
   private final TransactionService txnService;
+  private final DirectPaymentService directPaymentService;
+  private final UserRepository userRepository;
+  private final Timer pendingTapTimer;
+  private final Timer directTapTimer;
+
+  /** Whether single taps are charged directly instead of through a pending transaction. */
+  @Value("${chpay.rfid.direct_charge:true}")
+  private boolean directCharge;
 
-  public RfidPaymentService(RequestService requestService, TransactionService txnService) {
+  public RfidPaymentService(
+      RequestService requestService,
+      TransactionService txnService,
+      DirectPaymentService directPaymentService,
+      UserRepository userRepository,
+      MeterRegistry meterRegistry) {
     this.requestService = requestService;
     this.txnService = txnService;
+    this.directPaymentService = directPaymentService;
+    this.userRepository = userRepository;
+    this.pendingTapTimer = tapTimer(meterRegistry, "pending");
+    this.directTapTimer = tapTimer(meterRegistry, "direct");
+  }
+
+  private static Timer tapTimer(MeterRegistry meterRegistry, String path) {
+    return Timer.builder("chpay.rfid.tap")
+        .description("Time taken to handle a single card tap")
+        .tag("path", path)
+        .publishPercentiles(0.5, 0.99)
+        .register(meterRegistry);
+  }
+
+  /**
+   * Charges a user for a single card tap, either directly or through a pending transaction
+   * depending on chpay.rfid.direct_charge. Both ways are timed under chpay.rfid.tap.
+   *
+   * @param user to make the purchase.
+   * @param requestId to be paid
+   * @param clientTapId id the terminal gave to the tap, or null if it gave none
+   * @return User name
+   */
+  public String payTap(User user, UUID requestId, String clientTapId) {
+    if (directCharge) {
+      return directTapTimer.record(() -> chargeNow(user, requestId, clientTapId));
+    }
+    return pendingTapTimer.record(() -> payFromRequest(user, requestId));
+  }
+
+  /**
+   * Charges a single tap in one database transaction: the payment is created as SUCCESSFUL under
+   * one lock on the user, without going through a pending transaction first.
+   *
+   * @throws NoSuchElementException if the request does not exist
+   * @throws IllegalStateException if the request has expired or was already paid, or the tap
+   *     repeats a declined tap
+   * @throws InsufficientBalanceException if the user cannot afford the request
+   */
+  private String chargeNow(User user, UUID requestId, String clientTapId) {
+    // Map.of does not allow the null key of a tap without a client tap id.
+    Map<String, UUID> tap = new HashMap<>();
+    tap.put(clientTapId, requestId);
+    DirectPaymentService.TapCharge charge =
+        directPaymentService.chargeTaps(user.getId(), tap).get(clientTapId);
+
+    if (charge == null) {
+      throw new NoSuchElementException("No payment request " + requestId);
+    }
+    if (charge.decline() == DirectPaymentService.Decline.INSUFFICIENT_BALANCE) {
+      throw new InsufficientBalanceException("Insufficient balance for request " + requestId);
+    }
+    if (charge.decline() != null) {
+      throw new IllegalStateException(charge.decline().getMessage());
+    }
+
+    return user.getName();
   }
 
   /**
@@ -51,4 +140,91 @@ public class RfidPaymentService {
 
     return user.getName();
   }
+
+  /**
+   * Charges a batch of taps that a terminal buffered. The users of all taps are looked up at once,
+   * and the taps of each user are charged together in one database transaction, so a failure for
+   * one user does not affect the taps of the others.
+   *
+   * @param taps the taps in the order they were made
+   * @return a result for every tap, in the same order
+   */
+  public List<RfidTapResult> payBatch(List<RfidTap> taps) {
+    Set<String> rfids =
+        taps.stream().map(RfidTap::getRfid).filter(r -> r != null).collect(Collectors.toSet());
+    Map<String, User> usersByRfid =
+        userRepository.findByRfidIn(rfids).stream()
+            .collect(Collectors.toMap(User::getRfid, Function.identity()));
+
+    Map<Integer, RfidTapResult> rejected = new HashMap<>();
+    Map<String, Map<String, UUID>> tapsByRfid = new LinkedHashMap<>();
+    for (int i = 0; i < taps.size(); i++) {
+      RfidTap tap = taps.get(i);
+      if (tap.getClientTapId() == null || tap.getClientTapId().isBlank()) {
+        rejected.put(i, RfidTapResult.error(tap.getClientTapId(), "Missing client tap id"));
+      } else if (tap.getRequestId() == null) {
+        rejected.put(i, RfidTapResult.error(tap.getClientTapId(), "Missing request id"));
+      } else if (!usersByRfid.containsKey(tap.getRfid())) {
+        String message = "No user found for RFID " + tap.getRfid();
+        rejected.put(i, RfidTapResult.error(tap.getClientTapId(), message));
+      } else {
+        tapsByRfid
+            .computeIfAbsent(tap.getRfid(), r -> new LinkedHashMap<>())
+            .putIfAbsent(tap.getClientTapId(), tap.getRequestId());
+      }
+    }
+
+    // Client tap ids are only unique per user, so results are kept per card.
+    Map<String, Map<String, RfidTapResult>> charged = new HashMap<>();
+    tapsByRfid.forEach(
+        (rfid, userTaps) -> charged.put(rfid, chargeUser(usersByRfid.get(rfid), userTaps)));
+
+    List<RfidTapResult> results = new ArrayList<>(taps.size());
+    for (int i = 0; i < taps.size(); i++) {
+      RfidTap tap = taps.get(i);
+      RfidTapResult result = rejected.get(i);
+      results.add(
+          result != null ? result : charged.get(tap.getRfid()).get(tap.getClientTapId()));
+    }
+    return results;
+  }
+
+  /** Charges the taps of one user and turns the outcome into a result per client tap id. */
+  private Map<String, RfidTapResult> chargeUser(User user, Map<String, UUID> taps) {
+    Map<String, RfidTapResult> results = new HashMap<>();
+    try {
+      Map<String, DirectPaymentService.TapCharge> charges =
+          directPaymentService.chargeTaps(user.getId(), taps);
+      taps.forEach(
+          (clientTapId, requestId) ->
+              results.put(clientTapId, toResult(user, clientTapId, requestId, charges)));
+    } catch (Exception e) {
+      log.error("Charging {} taps of user {} failed", taps.size(), user.getId(), e);
+      String message =
+          e instanceof IllegalStateException ? e.getMessage() : "Unexpected server error";
+      taps.keySet().forEach(id -> results.put(id, RfidTapResult.error(id, message)));
+    }
+    return results;
+  }
+
+  private static RfidTapResult toResult(
+      User user,
+      String clientTapId,
+      UUID requestId,
+      Map<String, DirectPaymentService.TapCharge> charges) {
+    DirectPaymentService.TapCharge charge = charges.get(clientTapId);
+    if (charge == null) {
+      return RfidTapResult.error(clientTapId, "No payment request " + requestId);
+    }
+    PaymentTransaction payment = charge.payment();
+    if (charge.decline() != null) {
+      return new RfidTapResult(
+          clientTapId,
+          "error",
+          "Payment declined: " + charge.decline().getMessage(),
+          payment.getId().toString());
+    }
+    return new RfidTapResult(
+        clientTapId, "message", user.getName() + " has paid", payment.getId().toString());
+  }
 }
@@ -1,11 +1,24 @@
 package ch.wisv.chpay.auth.component;
 
+import ch.wisv.chpay.auth.config.ApiClientProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.lang.NonNull;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
@@ -15,16 +28,45 @@ import org.springframework.web.filter.OncePerRequestFilter;
 
 public class ApiKeyFilter extends OncePerRequestFilter {
 
-  private final String expectedApiKey;
+  /** Name of the client that authenticates with the single legacy chpay.api_key. */
+  private static final String LEGACY_CLIENT = "default";
 
-  public ApiKeyFilter(String expectedApiKey) {
-    this.expectedApiKey = expectedApiKey;
+  private static final String DEFAULT_ENDPOINT = "default";
+
+  private final Map<String, String> clientsByKeyHash = new HashMap<>();
+  private final ApiClientProperties.RateLimit rateLimit;
+  private final MeterRegistry meterRegistry;
+  private final Map<String, ClientEndpoint> clientEndpoints = new ConcurrentHashMap<>();
+  private final Counter unauthorized;
+
+  /** The bucket and meters of one client on one endpoint group. */
+  private record ClientEndpoint(TokenBucket bucket, Counter requests, Counter throttled) {}
+
+  public ApiKeyFilter(
+      ApiClientProperties properties, String legacyApiKey, MeterRegistry meterRegistry) {
+    for (ApiClientProperties.Client client : properties.getClients()) {
+      clientsByKeyHash.put(client.getKeySha256().toLowerCase(Locale.ROOT), client.getName());
+    }
+    if (legacyApiKey != null && !legacyApiKey.isBlank()) {
+      clientsByKeyHash.putIfAbsent(sha256(legacyApiKey), LEGACY_CLIENT);
+    }
+    this.rateLimit = properties.getRateLimit();
+    this.meterRegistry = meterRegistry;
+    this.unauthorized =
+        Counter.builder("chpay.api.rejected")
+            .description("API requests that were rejected")
+            .tag("client", "unknown")
+            .tag("endpoint", "unknown")
+            .tag("reason", "unauthorized")
+            .register(meterRegistry);
   }
 
   /**
-   * API key filter that checks the API key in the request header for API requests. If the API key
-   * is valid, sets the ROLE_API_USER role and continues. If invalid, returns 401 Unauthorized. For
-   * non-API requests, passes through without modification.
+   * API key filter that checks the API key in the request header for API requests. If the key
+   * belongs to a configured client and that client has not exhausted its rate limit for the
+   * endpoint, sets the ROLE_API_USER role with the client's name as principal and continues. An
+   * invalid key returns 401 Unauthorized, an exhausted limit returns 429 Too Many Requests with a
+   * Retry-After header. For non-API requests, passes through without modification.
    *
    * @param request the {@code HttpServletRequest} object that contains the client request
    * @param response the {@code HttpServletResponse} object that contains the response to the client
@@ -49,18 +91,77 @@ public class ApiKeyFilter extends OncePerRequestFilter {
     }
 
     String apiKey = request.getHeader("X-API-KEY");
+    String client = apiKey == null ? null : clientsByKeyHash.get(sha256(apiKey));
 
-    if (apiKey == null || !expectedApiKey.equals(apiKey)) {
+    if (client == null) {
+      unauthorized.increment();
       response.sendError(HttpStatus.UNAUTHORIZED.value(), "Invalid or missing API key");
       return;
     }
 
+    String endpoint = endpointOf(path);
+    ClientEndpoint limits =
+        clientEndpoints.computeIfAbsent(
+            client + '/' + endpoint, ignored -> register(client, endpoint));
+    limits.requests().increment();
+
+    long waitNanos = limits.bucket().tryConsume(System.nanoTime());
+    if (waitNanos > 0) {
+      limits.throttled().increment();
+      long retryAfter = TimeUnit.NANOSECONDS.toSeconds(waitNanos - 1) + 1;
+      response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(retryAfter));
+      response.sendError(HttpStatus.TOO_MANY_REQUESTS.value(), "Rate limit exceeded");
+      return;
+    }
+
     // Set API_USER role for valid API key
     List<SimpleGrantedAuthority> authorities = List.of(new SimpleGrantedAuthority("ROLE_API_USER"));
     UsernamePasswordAuthenticationToken auth =
-        new UsernamePasswordAuthenticationToken("api-user", null, authorities);
+        new UsernamePasswordAuthenticationToken(client, null, authorities);
     SecurityContextHolder.getContext().setAuthentication(auth);
 
     filterChain.doFilter(request, response);
   }
+
+  /**
+   * The endpoint group of a request, the first path segment after /api/. Groups that have no limit
+   * of their own are folded into the default group, so the number of buckets stays bounded no
+   * matter which paths clients request.
+   */
+  private String endpointOf(String path) {
+    int start = "/api/".length();
+    int end = path.indexOf('/', start);
+    String group = end < 0 ? path.substring(start) : path.substring(start, end);
+    return rateLimit.getEndpoints().containsKey(group) ? group : DEFAULT_ENDPOINT;
+  }
+
+  private ClientEndpoint register(String client, String endpoint) {
+    ApiClientProperties.Limit limit = rateLimit.getEndpoints().getOrDefault(endpoint, rateLimit);
+    TokenBucket bucket =
+        new TokenBucket(limit.getCapacity(), limit.getRefillPerSecond(), System.nanoTime());
+    Counter requests =
+        Counter.builder("chpay.api.requests")
+            .description("Authenticated API requests, including throttled ones")
+            .tag("client", client)
+            .tag("endpoint", endpoint)
+            .register(meterRegistry);
+    Counter throttled =
+        Counter.builder("chpay.api.rejected")
+            .description("API requests that were rejected")
+            .tag("client", client)
+            .tag("endpoint", endpoint)
+            .tag("reason", "throttled")
+            .register(meterRegistry);
+    return new ClientEndpoint(bucket, requests, throttled);
+  }
+
+  private static String sha256(String key) {
+    try {
+      return HexFormat.of()
+          .formatHex(
+              MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8)));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
 }
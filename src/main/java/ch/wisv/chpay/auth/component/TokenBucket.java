@@ -0,0 +1,42 @@
+package ch.wisv.chpay.auth.component;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Token bucket that refills continuously. The state is swapped with compare-and-set, so concurrent
+ * requests of the same client never block each other.
+ */
+class TokenBucket {
+
+  private record State(double tokens, long updatedAt) {}
+
+  private final double capacity;
+  private final double refillPerNano;
+  private final AtomicReference<State> state;
+
+  TokenBucket(int capacity, double refillPerSecond, long now) {
+    this.capacity = capacity;
+    this.refillPerNano = refillPerSecond / 1_000_000_000d;
+    this.state = new AtomicReference<>(new State(capacity, now));
+  }
+
+  /**
+   * Takes a token from the bucket if one is available.
+   *
+   * @param now the current {@link System#nanoTime()}
+   * @return 0 if a token was taken, otherwise the number of nanoseconds until one is available
+   */
+  long tryConsume(long now) {
+    while (true) {
+      State current = state.get();
+      long elapsed = Math.max(0, now - current.updatedAt());
+      double tokens = Math.min(capacity, current.tokens() + elapsed * refillPerNano);
+      if (tokens < 1) {
+        return (long) Math.ceil((1 - tokens) / refillPerNano);
+      }
+      if (state.compareAndSet(current, new State(tokens - 1, Math.max(now, current.updatedAt())))) {
+        return 0;
+      }
+    }
+  }
+}
@@ -0,0 +1,50 @@
+package ch.wisv.chpay.auth.config;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * The clients that may call {@code /api/**} and how fast they may do so. Clients are identified by
+ * the SHA-256 hash of their key, so the keys themselves never have to be stored in configuration.
+ * Every client gets its own token bucket per endpoint group, the first path segment after {@code
+ * /api/}; groups without their own limit share the client's default bucket.
+ */
+@Component
+@ConfigurationProperties(prefix = "chpay.api")
+@Getter
+@Setter
+public class ApiClientProperties {
+
+  private List<Client> clients = new ArrayList<>();
+  private RateLimit rateLimit = new RateLimit();
+
+  @Getter
+  @Setter
+  public static class Client {
+    private String name;
+    /** Hex encoded SHA-256 hash of the key the client sends in the X-API-KEY header. */
+    private String keySha256;
+  }
+
+  @Getter
+  @Setter
+  public static class Limit {
+    /** The number of requests a client can make in a burst. */
+    private int capacity = 20;
+    /** The number of requests per second a client can sustain. */
+    private double refillPerSecond = 10;
+  }
+
+  @Getter
+  @Setter
+  public static class RateLimit extends Limit {
+    /** Limits of endpoint groups that should not share the default bucket. */
+    private Map<String, Limit> endpoints = new HashMap<>();
+  }
+}
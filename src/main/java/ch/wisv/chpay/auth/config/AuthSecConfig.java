@@ -4,6 +4,7 @@ import ch.wisv.chpay.auth.component.ApiKeyFilter;
 import ch.wisv.chpay.auth.component.CustomAccessDeniedHandler;
 import ch.wisv.chpay.auth.component.OAuth2FailureHandler;
 import ch.wisv.chpay.auth.service.CustomOIDCUserService;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import java.net.URI;
@@ -47,7 +48,11 @@ public class AuthSecConfig {
 
   @Autowired private ClientRegistrationRepository clientRegistrationRepository;
 
-  @Value("${chpay.api_key}")
+  @Autowired private ApiClientProperties apiClientProperties;
+
+  @Autowired private MeterRegistry meterRegistry;
+
+  @Value("${chpay.api_key:}")
   private String apiKey;
 
   @Bean
@@ -71,8 +76,8 @@ public class AuthSecConfig {
     configureRequestAuthorization(http);
 
     // Add API key filter before OAuth2 login
-    // Create the filter directly with the configured API key
-    ApiKeyFilter apiKeyFilter = new ApiKeyFilter(apiKey);
+    // Create the filter directly with the configured API clients
+    ApiKeyFilter apiKeyFilter = new ApiKeyFilter(apiClientProperties, apiKey, meterRegistry);
     http.addFilterBefore(apiKeyFilter, UsernamePasswordAuthenticationFilter.class);
 
     // Create and configure the success handler
@@ -2,6 +2,7 @@ package ch.wisv.chpay.auth.service;
 
 import ch.wisv.chpay.core.model.User;
 import ch.wisv.chpay.core.repository.UserRepository;
+import ch.wisv.chpay.core.service.UserIdentityCache;
 import java.util.*;
 import lombok.Getter;
 import lombok.Setter;
@@ -43,10 +44,13 @@ public class CustomOIDCUserService extends OidcUserService {
   @Getter @Setter private String claimName;
 
   private final UserRepository userRepository;
+  private final UserIdentityCache userIdentityCache;
 
   @Autowired
-  public CustomOIDCUserService(UserRepository userRepository) {
+  public CustomOIDCUserService(
+      UserRepository userRepository, UserIdentityCache userIdentityCache) {
     this.userRepository = userRepository;
+    this.userIdentityCache = userIdentityCache;
   }
 
   /**
@@ -111,6 +115,7 @@ public class CustomOIDCUserService extends OidcUserService {
       user = new User(name, email, sub);
     }
 
+    userIdentityCache.evictOpenId(sub);
     return userRepository.save(user);
   }
 }
@@ -0,0 +1,67 @@
+package ch.wisv.chpay.config;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.time.Duration;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.cache.CacheManagerCustomizer;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Registers the caches that need a different size than the small settings caches configured
+ * through spring.cache. Caches registered here are bound to actuator's cache metrics like the
+ * others.
+ */
+@Configuration
+public class CacheConfig {
+
+  /** Maps an RFID tag to the id of the user it belongs to. */
+  public static final String USER_ID_BY_RFID = "userIdByRfid";
+
+  /** Maps an OpenID subject to the id of the user it belongs to. */
+  public static final String USER_ID_BY_OPEN_ID = "userIdByOpenId";
+
+  /** Maps a QR code's content, size, error correction level and format to the rendered image. */
+  public static final String QR_CODES = "qrCodes";
+
+  /**
+   * Adds the identity caches used to resolve card taps and logged-in users to user ids. Only ids
+   * are cached; the user itself, and so their balance, is always read from the database.
+   *
+   * @param maximumSize the maximum number of entries per cache
+   * @param expireAfterWrite the number of minutes after which an entry is reloaded
+   * @return a customizer registering the identity caches
+   */
+  @Bean
+  public CacheManagerCustomizer<CaffeineCacheManager> identityCacheCustomizer(
+      @Value("${chpay.cache.identity.maximum_size:10000}") long maximumSize,
+      @Value("${chpay.cache.identity.expire_after_write:60}") long expireAfterWrite) {
+    return cacheManager -> {
+      for (String name : new String[] {USER_ID_BY_RFID, USER_ID_BY_OPEN_ID}) {
+        cacheManager.registerCustomCache(
+            name,
+            Caffeine.newBuilder()
+                .recordStats()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(Duration.ofMinutes(expireAfterWrite))
+                .build());
+      }
+    };
+  }
+
+  /**
+   * Adds the cache of rendered QR code images. An image never changes for a given key, so entries
+   * do not expire and are only evicted to stay within the size bound.
+   *
+   * @param maximumSize the maximum number of cached images
+   * @return a customizer registering the QR code cache
+   */
+  @Bean
+  public CacheManagerCustomizer<CaffeineCacheManager> qrCodeCacheCustomizer(
+      @Value("${chpay.cache.qr.maximum_size:500}") long maximumSize) {
+    return cacheManager ->
+        cacheManager.registerCustomCache(
+            QR_CODES, Caffeine.newBuilder().recordStats().maximumSize(maximumSize).build());
+  }
+}
@@ -0,0 +1,214 @@
+package ch.wisv.chpay.config;
+
+import ch.wisv.chpay.core.model.TransactionDailyTotal;
+import jakarta.annotation.PostConstruct;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Installs the PostgreSQL objects that Hibernate cannot generate from the entities. It runs after
+ * Hibernate has created or updated the tables and before the application accepts requests.
+ */
+@Component
+@DependsOn("entityManagerFactory")
+public class PostgresSchemaInitializer {
+
+  private static final Logger logger = LoggerFactory.getLogger(PostgresSchemaInitializer.class);
+
+  /** Columns of {@code users} that the admin user search matches substrings of. */
+  private static final List<String> USER_SEARCH_COLUMNS = List.of("name", "email", "rfid");
+
+  private static final String DAILY_TOTALS_TRIGGER = "transaction_daily_totals";
+
+  /**
+   * Moves a transaction's amount and count out of the totals of its old day, type and status and
+   * into those of its new ones. Each change goes to a random stripe of the target totals.
+   */
+  private static final String DAILY_TOTALS_FUNCTION =
+      """
+      CREATE OR REPLACE FUNCTION transaction_daily_totals_apply() RETURNS trigger AS $$
+      DECLARE
+        s int := floor(random() * %d);
+      BEGIN
+        IF TG_OP = 'UPDATE'
+            AND NEW.status = OLD.status AND NEW.type = OLD.type
+            AND NEW.amount = OLD.amount AND NEW.timestamp = OLD.timestamp THEN
+          RETURN NULL;
+        END IF;
+        IF TG_OP IN ('UPDATE', 'DELETE') THEN
+          INSERT INTO transaction_daily_totals AS d (day, type, status, stripe, amount, count)
+          VALUES (CAST(OLD.timestamp AS date), OLD.type, OLD.status, s, -OLD.amount, -1)
+          ON CONFLICT (day, type, status, stripe)
+          DO UPDATE SET amount = d.amount + EXCLUDED.amount, count = d.count + EXCLUDED.count;
+        END IF;
+        IF TG_OP IN ('INSERT', 'UPDATE') THEN
+          INSERT INTO transaction_daily_totals AS d (day, type, status, stripe, amount, count)
+          VALUES (CAST(NEW.timestamp AS date), NEW.type, NEW.status, s, NEW.amount, 1)
+          ON CONFLICT (day, type, status, stripe)
+          DO UPDATE SET amount = d.amount + EXCLUDED.amount, count = d.count + EXCLUDED.count;
+        END IF;
+        RETURN NULL;
+      END
+      $$ LANGUAGE plpgsql
+      """
+          .formatted(TransactionDailyTotal.STRIPES);
+
+  private static final String DAILY_TOTALS_REBUILD =
+      """
+      INSERT INTO transaction_daily_totals (day, type, status, stripe, amount, count)
+      SELECT CAST(t.timestamp AS date), t.type, t.status, 0, SUM(t.amount), COUNT(*)
+      FROM transactions t
+      GROUP BY CAST(t.timestamp AS date), t.type, t.status
+      """;
+
+  private final JdbcTemplate jdbcTemplate;
+  private final TransactionTemplate transactionTemplate;
+
+  @Autowired
+  public PostgresSchemaInitializer(
+      JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+  }
+
+  /**
+   * Installs the objects, unless the database is not PostgreSQL, such as an in-memory database for
+   * tests, which starts empty and does without them.
+   */
+  @PostConstruct
+  public void initialize() {
+    if (!isPostgres(jdbcTemplate)) {
+      logger.info("Not a PostgreSQL database, skipping the PostgreSQL schema objects");
+      return;
+    }
+    installDailyTotals();
+    installUserSearchIndexes();
+    installPartialIndexes();
+    scopeClientTapIdsToUsers();
+  }
+
+  /**
+   * Drops the unique constraint that payments had on their client tap id alone, from before tap ids
+   * were unique per user only, and fills in the user of the taps made until then. Databases that no
+   * longer have that constraint are left alone.
+   */
+  private void scopeClientTapIdsToUsers() {
+    List<String> constraints =
+        jdbcTemplate.queryForList(
+            """
+            SELECT c.conname FROM pg_constraint c
+            JOIN pg_attribute a ON a.attrelid = c.conrelid AND a.attnum = c.conkey[1]
+            WHERE c.conrelid = 'payment_transaction'::regclass AND c.contype = 'u'
+            AND cardinality(c.conkey) = 1 AND a.attname = 'client_tap_id'
+            """,
+            String.class);
+    if (constraints.isEmpty()) {
+      return;
+    }
+
+    transactionTemplate.executeWithoutResult(
+        status -> {
+          jdbcTemplate.update(
+              "UPDATE payment_transaction p SET client_tap_user_id = t.user_id"
+                  + " FROM transactions t"
+                  + " WHERE t.id = p.id AND p.client_tap_id IS NOT NULL"
+                  + " AND p.client_tap_user_id IS NULL");
+          for (String constraint : constraints) {
+            jdbcTemplate.execute(
+                "ALTER TABLE payment_transaction DROP CONSTRAINT \"" + constraint + "\"");
+          }
+        });
+    logger.info("Scoped the client tap ids of payments to their users");
+  }
+
+  /**
+   * Installs indexes that only cover the rows a periodic job looks for, which stay small however
+   * large their tables grow.
+   */
+  private void installPartialIndexes() {
+    jdbcTemplate.execute(
+        "CREATE INDEX IF NOT EXISTS idx_transaction_pending_time ON transactions (timestamp)"
+            + " WHERE status = 'PENDING'");
+    jdbcTemplate.execute(
+        "CREATE INDEX IF NOT EXISTS idx_request_unexpired_created_at ON requests (created_at)"
+            + " WHERE expired = FALSE");
+  }
+
+  /**
+   * Installs the trigram indexes that let the admin user search match substrings of names, emails
+   * and RFIDs without scanning all users. The search still works without them, so a database
+   * where the pg_trgm extension cannot be created only logs a warning.
+   */
+  private void installUserSearchIndexes() {
+    try {
+      jdbcTemplate.execute("CREATE EXTENSION IF NOT EXISTS pg_trgm");
+      for (String column : USER_SEARCH_COLUMNS) {
+        jdbcTemplate.execute(
+            "CREATE INDEX IF NOT EXISTS idx_user_"
+                + column
+                + "_trgm ON users USING gin (lower("
+                + column
+                + ") gin_trgm_ops)");
+      }
+    } catch (DataAccessException e) {
+      logger.warn("Could not create the user search indexes: {}", e.getMessage());
+    }
+  }
+
+  /**
+   * Installs the trigger that maintains {@link TransactionDailyTotal}. When the trigger is missing,
+   * because the tables are new or were recreated, the totals are rebuilt from the transactions
+   * while writes to them are blocked, so no change is counted twice or missed. Startups that find
+   * the trigger in place do not lock anything.
+   */
+  private void installDailyTotals() {
+    if (dailyTotalsTriggerInstalled()) {
+      return;
+    }
+
+    transactionTemplate.executeWithoutResult(
+        status -> {
+          jdbcTemplate.execute("LOCK TABLE transactions IN SHARE ROW EXCLUSIVE MODE");
+          // Another instance may have installed it while this one waited for the lock.
+          if (dailyTotalsTriggerInstalled()) {
+            return;
+          }
+
+          jdbcTemplate.execute(DAILY_TOTALS_FUNCTION);
+          jdbcTemplate.execute("DELETE FROM transaction_daily_totals");
+          jdbcTemplate.execute(DAILY_TOTALS_REBUILD);
+          jdbcTemplate.execute(
+              "CREATE TRIGGER "
+                  + DAILY_TOTALS_TRIGGER
+                  + " AFTER INSERT OR UPDATE OR DELETE ON transactions"
+                  + " FOR EACH ROW EXECUTE FUNCTION transaction_daily_totals_apply()");
+          logger.info("Installed the transaction daily totals trigger and rebuilt the totals");
+        });
+  }
+
+  private boolean dailyTotalsTriggerInstalled() {
+    return Boolean.TRUE.equals(
+        jdbcTemplate.queryForObject(
+            "SELECT EXISTS (SELECT 1 FROM pg_trigger WHERE tgname = ?)",
+            Boolean.class,
+            DAILY_TOTALS_TRIGGER));
+  }
+
+  /** Whether the database behind the given template is PostgreSQL. */
+  static boolean isPostgres(JdbcTemplate jdbcTemplate) {
+    return "PostgreSQL"
+        .equals(
+            jdbcTemplate.execute(
+                (ConnectionCallback<String>)
+                    connection -> connection.getMetaData().getDatabaseProductName()));
+  }
+}
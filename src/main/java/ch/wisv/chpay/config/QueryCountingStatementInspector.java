@@ -0,0 +1,28 @@
+package ch.wisv.chpay.config;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Counts the SQL statements Hibernate prepares on the current thread, so {@link QueryMetricsFilter}
+ * can report how many queries each request needed.
+ */
+public class QueryCountingStatementInspector implements StatementInspector {
+
+  private static final ThreadLocal<long[]> COUNT = ThreadLocal.withInitial(() -> new long[1]);
+
+  @Override
+  public String inspect(String sql) {
+    COUNT.get()[0]++;
+    return sql;
+  }
+
+  /** Starts counting from zero on the current thread. */
+  public static void reset() {
+    COUNT.get()[0] = 0;
+  }
+
+  /** Gets the number of statements prepared on the current thread since the last reset. */
+  public static long current() {
+    return COUNT.get()[0];
+  }
+}
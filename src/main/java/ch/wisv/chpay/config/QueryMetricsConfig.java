@@ -0,0 +1,25 @@
+package ch.wisv.chpay.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/** Configuration for measuring the number of SQL statements each request executes. */
+@Configuration
+public class QueryMetricsConfig {
+
+  @Bean
+  public HibernatePropertiesCustomizer queryCountingCustomizer() {
+    QueryCountingStatementInspector inspector = new QueryCountingStatementInspector();
+    return properties -> properties.put(AvailableSettings.STATEMENT_INSPECTOR, inspector);
+  }
+
+  @Bean
+  public FilterRegistrationBean<QueryMetricsFilter> queryMetricsFilter(
+      MeterRegistry meterRegistry) {
+    return new FilterRegistrationBean<>(new QueryMetricsFilter(meterRegistry));
+  }
+}
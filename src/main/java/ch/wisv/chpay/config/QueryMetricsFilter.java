@@ -0,0 +1,44 @@
+package ch.wisv.chpay.config;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+/**
+ * Records the number of SQL statements each request needed as chpay.http.server.queries, tagged
+ * with the same uri pattern and method as actuator's http.server.requests, so page render latency
+ * and query count can be compared per endpoint.
+ */
+public class QueryMetricsFilter extends OncePerRequestFilter {
+
+  private final MeterRegistry meterRegistry;
+
+  public QueryMetricsFilter(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
+  @Override
+  protected void doFilterInternal(
+      HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+      throws ServletException, IOException {
+    QueryCountingStatementInspector.reset();
+    try {
+      filterChain.doFilter(request, response);
+    } finally {
+      Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+      DistributionSummary.builder("chpay.http.server.queries")
+          .description("Number of SQL statements executed to handle a request")
+          .tag("uri", pattern != null ? pattern.toString() : "UNKNOWN")
+          .tag("method", request.getMethod())
+          .publishPercentiles(0.5, 0.99)
+          .register(meterRegistry)
+          .record(QueryCountingStatementInspector.current());
+    }
+  }
+}
@@ -1,7 +1,11 @@
 package ch.wisv.chpay.config;
 
+import java.net.http.HttpClient;
+import java.time.Duration;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 
 /**
@@ -12,14 +16,25 @@ import org.springframework.web.client.RestTemplate;
 @Configuration
 public class RestTemplateConfig {
 
+  @Value("${chpay.webhooks.connect_timeout_seconds:5}")
+  private long connectTimeoutSeconds;
+
+  @Value("${chpay.webhooks.read_timeout_seconds:10}")
+  private long readTimeoutSeconds;
+
   /**
    * Creates and configures a RestTemplate bean for HTTP client operations. This bean can be
-   * injected into services that need to make HTTP requests.
+   * injected into services that need to make HTTP requests. Connecting and waiting for a response
+   * are both bounded, so an unresponsive endpoint cannot hold up the calling thread indefinitely.
    *
    * @return a configured RestTemplate instance
    */
   @Bean
   public RestTemplate restTemplate() {
-    return new RestTemplate();
+    HttpClient httpClient =
+        HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(connectTimeoutSeconds)).build();
+    JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(httpClient);
+    requestFactory.setReadTimeout(Duration.ofSeconds(readTimeoutSeconds));
+    return new RestTemplate(requestFactory);
   }
 }
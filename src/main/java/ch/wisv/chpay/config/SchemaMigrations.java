@@ -0,0 +1,67 @@
+package ch.wisv.chpay.config;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps track of one-off data migrations, such as backfills for tables that were introduced after
+ * the data they describe, so they run once instead of scanning their source tables on every
+ * startup. Migrations must be safe to run concurrently and to run again after being interrupted,
+ * because a migration is only marked as applied once it has completed. They only apply to
+ * PostgreSQL; other databases, such as an in-memory one for tests, start empty.
+ */
+@Component
+@DependsOn("entityManagerFactory")
+public class SchemaMigrations {
+
+  private static final Logger logger = LoggerFactory.getLogger(SchemaMigrations.class);
+
+  private final JdbcTemplate jdbcTemplate;
+  private boolean enabled;
+
+  @Autowired
+  public SchemaMigrations(JdbcTemplate jdbcTemplate) {
+    this.jdbcTemplate = jdbcTemplate;
+  }
+
+  @PostConstruct
+  public void initialize() {
+    enabled = PostgresSchemaInitializer.isPostgres(jdbcTemplate);
+    if (!enabled) {
+      return;
+    }
+    jdbcTemplate.execute(
+        "CREATE TABLE IF NOT EXISTS schema_migrations"
+            + " (name VARCHAR(100) PRIMARY KEY, applied_at TIMESTAMP NOT NULL)");
+  }
+
+  /**
+   * Runs a migration unless it has been applied before.
+   *
+   * @param name the name the migration is recorded under
+   * @param migration the migration to run
+   */
+  public void runOnce(String name, Runnable migration) {
+    if (!enabled) {
+      return;
+    }
+    Boolean applied =
+        jdbcTemplate.queryForObject(
+            "SELECT EXISTS (SELECT 1 FROM schema_migrations WHERE name = ?)", Boolean.class, name);
+    if (Boolean.TRUE.equals(applied)) {
+      return;
+    }
+
+    migration.run();
+    jdbcTemplate.update(
+        "INSERT INTO schema_migrations (name, applied_at) VALUES (?, CURRENT_TIMESTAMP)"
+            + " ON CONFLICT (name) DO NOTHING",
+        name);
+    logger.info("Applied migration {}", name);
+  }
+}
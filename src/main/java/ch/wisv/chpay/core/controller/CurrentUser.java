@@ -0,0 +1,76 @@
+package ch.wisv.chpay.core.controller;
+
+import ch.wisv.chpay.core.exception.UserNotFoundException;
+import ch.wisv.chpay.core.model.User;
+import ch.wisv.chpay.core.model.UserSummary;
+import ch.wisv.chpay.core.repository.UserRepository;
+import java.util.Optional;
+import java.util.UUID;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.core.oidc.user.OidcUser;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.annotation.RequestScope;
+
+/**
+ * The user that is logged in for the current request. Nothing is loaded until it is asked for, and
+ * each part is loaded at most once per request: pages that only show the layout read the summary
+ * columns, and only handlers that act on the user load the full entity.
+ */
+@Component
+@RequestScope
+public class CurrentUser {
+
+  private final UserRepository userRepository;
+
+  private Optional<UUID> id;
+  private Optional<UserSummary> summary;
+  private Optional<User> user;
+
+  @Autowired
+  public CurrentUser(UserRepository userRepository) {
+    this.userRepository = userRepository;
+  }
+
+  /** Gets the id of the logged in user, if the request is made by one. */
+  public Optional<UUID> getId() {
+    if (id == null) {
+      id = getSubject().flatMap(userRepository::findIdByOpenID);
+    }
+    return id;
+  }
+
+  /** Gets the columns of the logged in user that the page layout shows. */
+  public Optional<UserSummary> getSummary() {
+    if (summary == null) {
+      summary = getId().flatMap(userRepository::findSummaryById);
+    }
+    return summary;
+  }
+
+  /** Gets the logged in user as an entity, for handlers that act on the user. */
+  public Optional<User> getUser() {
+    if (user == null) {
+      user = getId().flatMap(userRepository::findById);
+    }
+    return user;
+  }
+
+  /**
+   * Gets the logged in user as an entity.
+   *
+   * @throws UserNotFoundException if the request is not made by a known user
+   */
+  public User get() throws UserNotFoundException {
+    return getUser().orElseThrow(() -> new UserNotFoundException("User not found"));
+  }
+
+  private static Optional<String> getSubject() {
+    Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+    if (authentication != null && authentication.getPrincipal() instanceof OidcUser oidcUser) {
+      return Optional.ofNullable(oidcUser.getAttribute("sub"));
+    }
+    return Optional.empty();
+  }
+}
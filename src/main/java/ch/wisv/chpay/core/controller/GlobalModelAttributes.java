@@ -1,6 +1,6 @@
 package ch.wisv.chpay.core.controller;
 
-import ch.wisv.chpay.core.repository.UserRepository;
+import ch.wisv.chpay.core.model.UserSummary;
 import ch.wisv.chpay.core.service.SettingService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.Authentication;
@@ -9,35 +9,41 @@ import org.springframework.security.oauth2.core.oidc.user.OidcUser;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ModelAttribute;
+import org.thymeleaf.context.LazyContextVariable;
 
+/**
+ * Adds the attributes every page layout uses. The current user and the system status are added as
+ * lazy variables, so they are only loaded when a template actually renders them, not for
+ * redirects or JSON responses.
+ */
 @ControllerAdvice
 public class GlobalModelAttributes {
 
-  private final UserRepository userRepository;
+  private final CurrentUser currentUser;
   private final SettingService settingService;
 
   @Autowired
-  public GlobalModelAttributes(UserRepository userRepository, SettingService settingService) {
-    this.userRepository = userRepository;
+  public GlobalModelAttributes(CurrentUser currentUser, SettingService settingService) {
+    this.currentUser = currentUser;
     this.settingService = settingService;
   }
 
   @ModelAttribute
   public void addGlobalAttributes(Model model, Authentication authentication) {
-    addCurrentUser(model, authentication);
+    addCurrentUser(model);
     addAdminStatus(model, authentication);
     addSystemStatus(model);
   }
 
-  private void addCurrentUser(Model model, Authentication authentication) {
-    if (authentication != null && authentication.getPrincipal() instanceof OidcUser oidcUser) {
-      String sub = oidcUser.getAttribute("sub");
-      if (sub != null) {
-        userRepository
-            .findByOpenID(sub)
-            .ifPresent(user -> model.addAttribute(PageController.MODEL_ATTR_CURRENT_USER, user));
-      }
-    }
+  private void addCurrentUser(Model model) {
+    model.addAttribute(
+        PageController.MODEL_ATTR_CURRENT_USER,
+        new LazyContextVariable<UserSummary>() {
+          @Override
+          protected UserSummary loadValue() {
+            return currentUser.getSummary().orElse(null);
+          }
+        });
   }
 
   private void addAdminStatus(Model model, Authentication authentication) {
@@ -55,6 +61,13 @@ public class GlobalModelAttributes {
   }
 
   private void addSystemStatus(Model model) {
-    model.addAttribute(PageController.MODEL_ATTR_SYSTEM_FROZEN, settingService.isFrozen());
+    model.addAttribute(
+        PageController.MODEL_ATTR_SYSTEM_FROZEN,
+        new LazyContextVariable<Boolean>() {
+          @Override
+          protected Boolean loadValue() {
+            return settingService.isFrozen();
+          }
+        });
   }
 }
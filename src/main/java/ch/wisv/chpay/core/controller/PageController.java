@@ -31,9 +31,6 @@ public abstract class PageController {
   /** Model attr Logout Message. */
   public static final String MODEL_ATTR_LOGOUT_MESSAGE = "logoutMessage";
 
-  /** Model attr QR Code Base64. */
-  public static final String MODEL_ATTR_QR_CODE_BASE64 = "qrCodeBase64";
-
   /** Model attr Payment Request. */
   public static final String MODEL_ATTR_PAYMENT_REQUEST = "paymentRequest";
 
@@ -46,6 +43,9 @@ public abstract class PageController {
   /** Model attr Info. */
   public static final String MODEL_ATTR_INFO = "info";
 
+  /** Model attr Total Elements, the number of rows of a paged table over all its pages. */
+  public static final String MODEL_ATTR_TOTAL_ELEMENTS = "totalElements";
+
   /** Model attr Sort By. */
   public static final String MODEL_ATTR_SORTBY = "sortBy";
 
@@ -14,13 +14,27 @@ public class PaginationInfo {
   private final boolean hasPrev;
   private final long totalTransactions;
 
+  /** Cursor of the next page for cursor-based pagination, or null if there is no next page. */
+  private final String nextCursor;
+
   public PaginationInfo(
       long page, long size, boolean hasNext, boolean hasPrev, long totalTransactions) {
+    this(page, size, hasNext, hasPrev, totalTransactions, null);
+  }
+
+  private PaginationInfo(
+      long page,
+      long size,
+      boolean hasNext,
+      boolean hasPrev,
+      long totalTransactions,
+      String nextCursor) {
     this.page = page;
     this.size = size;
     this.hasNext = hasNext;
     this.hasPrev = hasPrev;
     this.totalTransactions = totalTransactions;
+    this.nextCursor = nextCursor;
   }
 
   /***
@@ -48,6 +62,19 @@ public class PaginationInfo {
     return new PaginationInfo(page, pageSize, hasNextPage, hasPrevPage, rowsSize);
   }
 
+  /***
+   * Method to return the state of cursor-based pagination, where pages are not numbered and the
+   * total is not counted. The page and total are reported as -1.
+   * @param pageSize the size of every page
+   * @param hasPrev whether this page was fetched with a cursor
+   * @param nextCursor the cursor of the next page, or null if this is the last page
+   * @return a object of class PaginationInfo holding the cursor of the next page
+   */
+  public static PaginationInfo buildCursorPaginationInfo(
+      int pageSize, boolean hasPrev, String nextCursor) {
+    return new PaginationInfo(-1, pageSize, nextCursor != null, hasPrev, -1, nextCursor);
+  }
+
   /**
    * Returns a Sort object to specify sorting behavior for a query.
    *
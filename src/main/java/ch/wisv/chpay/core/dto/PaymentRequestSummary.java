@@ -0,0 +1,50 @@
+package ch.wisv.chpay.core.dto;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import lombok.Getter;
+
+/** One row of the admin payment request table, with the totals of the request's payments. */
+@Getter
+public class PaymentRequestSummary {
+  private final UUID requestId;
+  private final LocalDateTime createdAt;
+  private final String description;
+  private final BigDecimal amount;
+  private final boolean multiUse;
+  private final boolean expired;
+  private final int fulfilments;
+
+  /** Sum of the booked payments of the request, including ones that were refunded later. */
+  private final BigDecimal grossAmount;
+
+  /** Sum of the successful refunds of payments of the request. */
+  private final BigDecimal refundedAmount;
+
+  public PaymentRequestSummary(
+      UUID requestId,
+      LocalDateTime createdAt,
+      String description,
+      BigDecimal amount,
+      boolean multiUse,
+      boolean expired,
+      int fulfilments,
+      BigDecimal grossAmount,
+      BigDecimal refundedAmount) {
+    this.requestId = requestId;
+    this.createdAt = createdAt;
+    this.description = description;
+    this.amount = amount;
+    this.multiUse = multiUse;
+    this.expired = expired;
+    this.fulfilments = fulfilments;
+    this.grossAmount = grossAmount;
+    this.refundedAmount = refundedAmount;
+  }
+
+  /** Whether the request can still be paid. */
+  public boolean isOpen() {
+    return !expired && (multiUse || fulfilments == 0);
+  }
+}
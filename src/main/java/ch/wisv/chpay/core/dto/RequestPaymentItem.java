@@ -0,0 +1,58 @@
+package ch.wisv.chpay.core.dto;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.UUID;
+import lombok.Getter;
+
+/**
+ * One successful payment of a payment request, as shown on the QR display page. The ledger entry
+ * id is the position of the payment in the feed, since it follows the order in which payments were
+ * actually made rather than the order in which they were started.
+ */
+@Getter
+public class RequestPaymentItem {
+
+  /**
+   * How long payments are fetched again after their ledger entry was written. Entry ids are handed
+   * out when the entry is inserted, not when the payment commits, so a payment can become visible
+   * after one with a higher id that a poller already moved its cursor past. Pollers therefore get
+   * the payments of the last minute again and drop the ones they have seen by transaction id.
+   */
+  public static final Duration CURSOR_OVERLAP = Duration.ofMinutes(1);
+
+  private final UUID transactionId;
+  private final String payerName;
+  private final BigDecimal amount;
+  private final LocalDateTime timestamp;
+  private final long entryId;
+
+  public RequestPaymentItem(
+      UUID transactionId,
+      String payerName,
+      BigDecimal amount,
+      LocalDateTime timestamp,
+      long entryId) {
+    this.transactionId = transactionId;
+    this.payerName = payerName;
+    this.amount = amount;
+    this.timestamp = timestamp;
+    this.entryId = entryId;
+  }
+
+  /**
+   * Minimal JSON containing only what the QR display page needs, with the ledger entry id as the
+   * cursor to fetch the next payments after.
+   */
+  public Map<String, String> toJson() {
+    return Map.of(
+        "transactionId", transactionId.toString(),
+        "payerName", payerName,
+        "amount", amount.abs().toPlainString(),
+        "timestamp", timestamp.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME),
+        "cursor", Long.toString(entryId));
+  }
+}
@@ -0,0 +1,60 @@
+package ch.wisv.chpay.core.dto;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.UUID;
+import lombok.Getter;
+
+/**
+ * Position in a transaction history that is ordered by timestamp and id, both descending. A page
+ * after a cursor starts at the first transaction that sorts after it, so pages stay stable while
+ * new transactions are added.
+ */
+@Getter
+public class TransactionCursor {
+  private static final String SEPARATOR = "_";
+
+  private final LocalDateTime timestamp;
+  private final UUID id;
+
+  public TransactionCursor(LocalDateTime timestamp, UUID id) {
+    this.timestamp = timestamp;
+    this.id = id;
+  }
+
+  /**
+   * Creates the cursor pointing at the given history row.
+   *
+   * @param item the last row of a page
+   * @return the cursor of the next page
+   */
+  public static TransactionCursor of(TransactionHistoryItem item) {
+    return new TransactionCursor(item.getTimestamp(), item.getId());
+  }
+
+  /**
+   * Parses a cursor that was created by {@link #encode()}.
+   *
+   * @param cursor the encoded cursor
+   * @return the decoded cursor
+   * @throws IllegalArgumentException if the cursor is malformed
+   */
+  public static TransactionCursor decode(String cursor) throws IllegalArgumentException {
+    int separator = cursor.lastIndexOf(SEPARATOR);
+    if (separator < 0) {
+      throw new IllegalArgumentException("Malformed cursor: " + cursor);
+    }
+    try {
+      return new TransactionCursor(
+          LocalDateTime.parse(cursor.substring(0, separator)),
+          UUID.fromString(cursor.substring(separator + 1)));
+    } catch (DateTimeParseException e) {
+      throw new IllegalArgumentException("Malformed cursor: " + cursor, e);
+    }
+  }
+
+  /** Encodes this cursor for use in a URL. */
+  public String encode() {
+    return timestamp + SEPARATOR + id;
+  }
+}
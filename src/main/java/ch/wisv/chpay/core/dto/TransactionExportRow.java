@@ -0,0 +1,36 @@
+package ch.wisv.chpay.core.dto;
+
+import ch.wisv.chpay.core.model.transaction.Transaction;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import lombok.Getter;
+
+/** One transaction as written by the exports, with the name of its user already joined in. */
+@Getter
+public class TransactionExportRow {
+  private final UUID id;
+  private final Transaction.TransactionType type;
+  private final String userName;
+  private final String description;
+  private final BigDecimal amount;
+  private final Transaction.TransactionStatus status;
+  private final LocalDateTime timestamp;
+
+  public TransactionExportRow(
+      UUID id,
+      Transaction.TransactionType type,
+      String userName,
+      String description,
+      BigDecimal amount,
+      Transaction.TransactionStatus status,
+      LocalDateTime timestamp) {
+    this.id = id;
+    this.type = type;
+    this.userName = userName;
+    this.description = description;
+    this.amount = amount;
+    this.status = status;
+    this.timestamp = timestamp;
+  }
+}
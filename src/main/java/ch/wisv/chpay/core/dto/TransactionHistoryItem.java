@@ -0,0 +1,33 @@
+package ch.wisv.chpay.core.dto;
+
+import ch.wisv.chpay.core.model.transaction.Transaction;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import lombok.Getter;
+
+/** One row of a user's transaction history, holding only the columns the history page shows. */
+@Getter
+public class TransactionHistoryItem {
+  private final UUID id;
+  private final LocalDateTime timestamp;
+  private final String description;
+  private final BigDecimal amount;
+  private final Transaction.TransactionType type;
+  private final Transaction.TransactionStatus status;
+
+  public TransactionHistoryItem(
+      UUID id,
+      LocalDateTime timestamp,
+      String description,
+      BigDecimal amount,
+      Transaction.TransactionType type,
+      Transaction.TransactionStatus status) {
+    this.id = id;
+    this.timestamp = timestamp;
+    this.description = description;
+    this.amount = amount;
+    this.type = type;
+    this.status = status;
+  }
+}
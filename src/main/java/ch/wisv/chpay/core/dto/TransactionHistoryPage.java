@@ -0,0 +1,16 @@
+package ch.wisv.chpay.core.dto;
+
+import java.util.List;
+import lombok.Getter;
+
+/** A page of a user's transaction history together with the cursor of the next page. */
+@Getter
+public class TransactionHistoryPage {
+  private final List<TransactionHistoryItem> items;
+  private final PaginationInfo pagination;
+
+  public TransactionHistoryPage(List<TransactionHistoryItem> items, PaginationInfo pagination) {
+    this.items = items;
+    this.pagination = pagination;
+  }
+}
@@ -0,0 +1,20 @@
+package ch.wisv.chpay.core.model;
+
+import ch.wisv.chpay.core.model.transaction.Transaction;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/** A {@link BalanceLedgerEntry} together with the transaction that caused it, if any. */
+public interface BalanceHistoryPoint {
+
+  LocalDateTime getTimestamp();
+
+  BigDecimal getBalance();
+
+  UUID getTransactionId();
+
+  String getDescription();
+
+  Transaction.TransactionType getType();
+}
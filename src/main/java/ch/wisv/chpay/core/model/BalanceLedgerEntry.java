@@ -0,0 +1,66 @@
+package ch.wisv.chpay.core.model;
+
+import jakarta.persistence.*;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Immutable;
+
+/**
+ * An immutable entry in the append-only balance ledger. Every change to a user's balance is
+ * recorded as one entry, together with the balance that resulted from it. Entries are never updated
+ * or deleted, so they form the balance history of the user.
+ */
+@Entity
+@Immutable
+@Table(
+    name = "balance_ledger",
+    indexes = {
+      @Index(name = "idx_ledger_user_entry", columnList = "user_id, id"),
+      @Index(name = "idx_ledger_transaction", columnList = "transaction_id")
+    })
+@Getter
+@NoArgsConstructor
+public class BalanceLedgerEntry {
+
+  public enum Kind {
+    OPENING,
+    CREDIT,
+    DEBIT
+  }
+
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  private Long id;
+
+  @Column(name = "user_id", nullable = false, updatable = false)
+  private UUID userId;
+
+  @Column(name = "transaction_id", updatable = false)
+  private UUID transactionId;
+
+  @Enumerated(EnumType.STRING)
+  @Column(nullable = false, updatable = false)
+  private Kind kind;
+
+  @Column(nullable = false, updatable = false, precision = 12, scale = 2)
+  private BigDecimal amount;
+
+  @Column(nullable = false, updatable = false, precision = 12, scale = 2)
+  private BigDecimal balanceAfter;
+
+  @Column(nullable = false, updatable = false)
+  private LocalDateTime createdAt;
+
+  public BalanceLedgerEntry(
+      UUID userId, UUID transactionId, Kind kind, BigDecimal amount, BigDecimal balanceAfter) {
+    this.userId = userId;
+    this.transactionId = transactionId;
+    this.kind = kind;
+    this.amount = amount;
+    this.balanceAfter = balanceAfter;
+    this.createdAt = LocalDateTime.now();
+  }
+}
@@ -7,13 +7,17 @@ import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 import org.hibernate.annotations.ColumnDefault;
+import org.hibernate.annotations.Formula;
 
 @Entity
-@Table(name = "requests")
+@Table(
+    name = "requests",
+    indexes = {@Index(name = "idx_request_created_at", columnList = "created_at")})
 @Getter
 @NoArgsConstructor
 public class PaymentRequest {
@@ -34,6 +38,13 @@ public class PaymentRequest {
   @ColumnDefault("0")
   private int fulfilments;
 
+  /** Fulfilments of a multi-use request, counted in {@link RequestFulfilmentStripe}s. */
+  @Getter(AccessLevel.NONE)
+  @Formula(
+      "(SELECT COALESCE(SUM(s.fulfilments), 0) FROM request_fulfilment_stripes s"
+          + " WHERE s.request_id = request_id)")
+  private int stripedFulfilments;
+
   @Column(nullable = false)
   private boolean multiUse;
 
@@ -59,6 +70,14 @@ public class PaymentRequest {
     this.transactions = new ArrayList<>();
   }
 
+  /**
+   * Gets the number of times this request has been paid. Single-use requests count on their own
+   * row, multi-use requests in striped counter rows, as of when this request was loaded.
+   */
+  public int getFulfilments() {
+    return fulfilments + stripedFulfilments;
+  }
+
   public void addFulfilment() {
     this.fulfilments++;
   }
@@ -9,6 +9,9 @@ import lombok.Setter;
 @Getter
 @Setter
 @Entity
+@Table(
+    name = "pending_webhook",
+    indexes = @Index(name = "idx_pending_webhook_due", columnList = "status, next_attempt"))
 public class PendingWebhook {
 
   @Id @GeneratedValue private UUID id;
@@ -21,6 +24,9 @@ public class PendingWebhook {
 
   private Instant nextAttempt;
 
+  /** When the webhook was queued, from which its delivery latency is measured. */
+  private Instant createdAt;
+
   @Enumerated(EnumType.STRING)
   private Status status;
 
@@ -0,0 +1,66 @@
+package ch.wisv.chpay.core.model;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+import java.util.UUID;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * An email waiting to be sent. The message is stored fully rendered, so the mail dispatcher only
+ * has to attach the inline logo and hand it to the mail server.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@Entity
+@Table(
+    name = "mail_queue",
+    indexes = @Index(name = "idx_mail_queue_due", columnList = "status, next_attempt"))
+public class QueuedMail {
+
+  @Id @GeneratedValue private UUID id;
+
+  @Column(nullable = false)
+  private String recipient;
+
+  @Column(nullable = false)
+  private String subject;
+
+  @Column(nullable = false, columnDefinition = "TEXT")
+  private String htmlBody;
+
+  /** Content id under which the logo is attached, as referenced by the body. */
+  @Column(nullable = false)
+  private String logoContentId;
+
+  private int retryCount;
+
+  @Column(nullable = false)
+  private Instant nextAttempt;
+
+  @Column(nullable = false)
+  private Instant createdAt;
+
+  @Enumerated(EnumType.STRING)
+  @Column(nullable = false)
+  private Status status;
+
+  public enum Status {
+    PENDING,
+    FAILED,
+    SENT
+  }
+
+  public QueuedMail(String recipient, String subject, String htmlBody, String logoContentId) {
+    this.recipient = recipient;
+    this.subject = subject;
+    this.htmlBody = htmlBody;
+    this.logoContentId = logoContentId;
+    this.retryCount = 0;
+    this.status = Status.PENDING;
+    this.createdAt = Instant.now();
+    this.nextAttempt = this.createdAt;
+  }
+}
@@ -0,0 +1,49 @@
+package ch.wisv.chpay.core.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.IdClass;
+import jakarta.persistence.Table;
+import java.io.Serializable;
+import java.util.UUID;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/**
+ * One of the counter rows that together hold the fulfilments of a multi-use {@link
+ * PaymentRequest}. Payments increment a random stripe, so concurrent payers of the same request
+ * rarely wait on the same row. Rows are only ever written through {@link
+ * ch.wisv.chpay.core.repository.RequestFulfilmentStripeRepository#increment}.
+ */
+@Entity
+@Table(name = "request_fulfilment_stripes")
+@IdClass(RequestFulfilmentStripe.Key.class)
+@Getter
+@NoArgsConstructor
+public class RequestFulfilmentStripe {
+
+  /** Number of stripes a request's fulfilments are spread over. */
+  public static final int STRIPES = 16;
+
+  @Id
+  @Column(name = "request_id", nullable = false, updatable = false)
+  private UUID requestId;
+
+  @Id
+  @Column(nullable = false, updatable = false)
+  private int stripe;
+
+  @Column(nullable = false)
+  private int fulfilments;
+
+  @Data
+  @NoArgsConstructor
+  @AllArgsConstructor
+  public static class Key implements Serializable {
+    private UUID requestId;
+    private int stripe;
+  }
+}
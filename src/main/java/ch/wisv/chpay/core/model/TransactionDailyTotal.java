@@ -0,0 +1,69 @@
+package ch.wisv.chpay.core.model;
+
+import ch.wisv.chpay.core.model.transaction.Transaction;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Id;
+import jakarta.persistence.IdClass;
+import jakarta.persistence.Table;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/**
+ * Number and summed amount of the transactions of one day with a given type and status. Like
+ * {@link RequestFulfilmentStripe}, the totals of a day are spread over {@link #STRIPES} rows so
+ * concurrent transactions rarely wait on the same row. The rows are maintained by a database
+ * trigger installed by {@link ch.wisv.chpay.config.PostgresSchemaInitializer}, which also covers
+ * status changes made with native queries.
+ */
+@Entity
+@Table(name = "transaction_daily_totals")
+@IdClass(TransactionDailyTotal.Key.class)
+@Getter
+@NoArgsConstructor
+public class TransactionDailyTotal {
+
+  /** Number of rows the totals of one day, type and status are spread over. */
+  public static final int STRIPES = 16;
+
+  @Id
+  @Column(nullable = false, updatable = false)
+  private LocalDate day;
+
+  @Id
+  @Enumerated(EnumType.STRING)
+  @Column(nullable = false, updatable = false)
+  private Transaction.TransactionType type;
+
+  @Id
+  @Enumerated(EnumType.STRING)
+  @Column(nullable = false, updatable = false)
+  private Transaction.TransactionStatus status;
+
+  @Id
+  @Column(nullable = false, updatable = false)
+  private int stripe;
+
+  @Column(nullable = false, precision = 14, scale = 2)
+  private BigDecimal amount;
+
+  @Column(nullable = false)
+  private long count;
+
+  @Data
+  @NoArgsConstructor
+  @AllArgsConstructor
+  public static class Key implements Serializable {
+    private LocalDate day;
+    private Transaction.TransactionType type;
+    private Transaction.TransactionStatus status;
+    private int stripe;
+  }
+}
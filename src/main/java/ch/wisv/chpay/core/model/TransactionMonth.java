@@ -0,0 +1,68 @@
+package ch.wisv.chpay.core.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Id;
+import jakarta.persistence.IdClass;
+import jakarta.persistence.Table;
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.UUID;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/**
+ * Marks a month in which a scope (all transactions, one user or one payment request) has at least
+ * one transaction. The month selectors of the admin transaction pages read these rows instead of
+ * aggregating the transactions table. Rows are only ever written through {@link
+ * ch.wisv.chpay.core.repository.TransactionMonthRepository#markActive}.
+ */
+@Entity
+@Table(name = "transaction_months")
+@IdClass(TransactionMonth.Key.class)
+@Getter
+@NoArgsConstructor
+public class TransactionMonth {
+
+  public enum Scope {
+    GLOBAL,
+    USER,
+    REQUEST
+  }
+
+  /** Scope id of the {@link Scope#GLOBAL} rows. */
+  public static final UUID GLOBAL_ID = new UUID(0, 0);
+
+  @Id
+  @Enumerated(EnumType.STRING)
+  @Column(nullable = false, updatable = false, length = 16)
+  private Scope scope;
+
+  /** The id of the user or payment request, or {@link #GLOBAL_ID}. */
+  @Id
+  @Column(name = "scope_id", nullable = false, updatable = false)
+  private UUID scopeId;
+
+  /** The first day of the month. */
+  @Id
+  @Column(nullable = false, updatable = false)
+  private LocalDate month;
+
+  public YearMonth getYearMonth() {
+    return YearMonth.from(month);
+  }
+
+  @Data
+  @NoArgsConstructor
+  @AllArgsConstructor
+  public static class Key implements Serializable {
+    private Scope scope;
+    private UUID scopeId;
+    private LocalDate month;
+  }
+}
@@ -12,6 +12,7 @@ import lombok.Setter;
 @Table(
     name = "users",
     indexes = {
+      @Index(name = "idx_user_name", columnList = "name"),
       @Index(name = "idx_user_email", columnList = "email"),
       @Index(name = "idx_user_openid", columnList = "open_id"),
       @Index(name = "idx_user_rfid", columnList = "rfid")
@@ -0,0 +1,18 @@
+package ch.wisv.chpay.core.model;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+/** The columns of a {@link User} that every page layout shows. */
+public interface UserSummary {
+
+  UUID getId();
+
+  String getName();
+
+  String getEmail();
+
+  BigDecimal getBalance();
+
+  Boolean getBanned();
+}
@@ -2,26 +2,61 @@ package ch.wisv.chpay.core.model.transaction;
 
 import ch.wisv.chpay.core.model.PaymentRequest;
 import ch.wisv.chpay.core.model.User;
+import jakarta.persistence.Column;
 import jakarta.persistence.DiscriminatorValue;
 import jakarta.persistence.Entity;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
 import java.math.BigDecimal;
+import java.util.UUID;
 
 @Entity
 @DiscriminatorValue("PAYMENT")
+@Table(
+    indexes = @Index(name = "idx_payment_request_id", columnList = "request_id"),
+    uniqueConstraints =
+        @UniqueConstraint(
+            name = "uk_payment_client_tap",
+            columnNames = {"client_tap_user_id", "client_tap_id"}))
 public class PaymentTransaction extends Transaction {
 
   @ManyToOne
   @JoinColumn(name = "request_id", nullable = false)
   private PaymentRequest request;
 
+  /** Id a card terminal gave to the tap that created this payment, used to ignore replays. */
+  @Column(name = "client_tap_id", updatable = false)
+  private String clientTapId;
+
+  /**
+   * The user that tapped, kept next to {@link #clientTapId} because the user column lives in the
+   * parent table, and a tap id is only unique per user.
+   */
+  @Column(name = "client_tap_user_id", updatable = false)
+  private UUID clientTapUserId;
+
   private PaymentTransaction(
       User user, BigDecimal amount, String description, PaymentRequest request) {
     super(user, amount, description, TransactionStatus.PENDING, TransactionType.PAYMENT);
     this.request = request;
   }
 
+  private PaymentTransaction(
+      User user,
+      BigDecimal amount,
+      String description,
+      PaymentRequest request,
+      TransactionStatus status,
+      String clientTapId) {
+    super(user, amount, description, status, TransactionType.PAYMENT);
+    this.request = request;
+    this.clientTapId = clientTapId;
+    this.clientTapUserId = clientTapId != null ? user.getId() : null;
+  }
+
   public PaymentTransaction() {
     super();
     setType(TransactionType.PAYMENT);
@@ -42,6 +77,10 @@ public class PaymentTransaction extends Transaction {
     return request;
   }
 
+  public String getClientTapId() {
+    return clientTapId;
+  }
+
   @Override
   public boolean supportsRequest() {
     return true;
@@ -63,4 +102,28 @@ public class PaymentTransaction extends Transaction {
     }
     return new PaymentTransaction(user, amount, description, request);
   }
+
+  /**
+   * Creates a payment for a card tap that is settled immediately, without a pending checkout.
+   *
+   * @param user the user associated with the transaction
+   * @param amount the negative amount representing the payment; must be less than zero
+   * @param description a description detailing the purpose of the transaction
+   * @param status SUCCESSFUL if the user was charged, FAILED if the tap was declined
+   * @param clientTapId the id the terminal gave to the tap, or null if it gave none
+   * @return a new instance of a Transaction with the given status and a type of PAYMENT
+   * @throws IllegalArgumentException if the amount is zero or positive
+   */
+  public static PaymentTransaction createDirectPayment(
+      User user,
+      BigDecimal amount,
+      String description,
+      PaymentRequest request,
+      TransactionStatus status,
+      String clientTapId) {
+    if (amount.compareTo(BigDecimal.ZERO) >= 0) {
+      throw new IllegalArgumentException("The amount of a payment must be negative");
+    }
+    return new PaymentTransaction(user, amount, description, request, status, clientTapId);
+  }
 }
@@ -3,13 +3,16 @@ package ch.wisv.chpay.core.model.transaction;
 import ch.wisv.chpay.core.model.User;
 import jakarta.persistence.DiscriminatorValue;
 import jakarta.persistence.Entity;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
+import jakarta.persistence.Table;
 import java.math.BigDecimal;
 import lombok.Setter;
 
 @Entity
 @DiscriminatorValue("REFUND")
+@Table(indexes = @Index(name = "idx_refund_of", columnList = "refund_of"))
 public class RefundTransaction extends Transaction {
 
   @ManyToOne
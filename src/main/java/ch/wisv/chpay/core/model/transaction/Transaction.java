@@ -5,18 +5,21 @@ import ch.wisv.chpay.core.model.User;
 import jakarta.persistence.*;
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.List;
 import java.util.UUID;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 
 @Entity
+@EntityListeners(TransactionMonthListener.class)
 @Inheritance(strategy = InheritanceType.JOINED)
 @Table(
     name = "transactions",
     indexes = {
       @Index(name = "idx_user_id", columnList = "user_id"),
-      @Index(name = "idx_transaction_user_time", columnList = "user_id, timestamp")
+      @Index(name = "idx_transaction_user_time", columnList = "user_id, timestamp"),
+      @Index(name = "idx_transaction_time", columnList = "timestamp")
     })
 @Getter
 @NoArgsConstructor
@@ -37,6 +40,13 @@ public class Transaction {
     PARTIALLY_REFUNDED
   }
 
+  /** Statuses of transactions that moved money, which are the ones that exports include. */
+  public static final List<TransactionStatus> BOOKED_STATUSES =
+      List.of(
+          TransactionStatus.SUCCESSFUL,
+          TransactionStatus.PARTIALLY_REFUNDED,
+          TransactionStatus.REFUNDED);
+
   @Id
   @GeneratedValue(strategy = GenerationType.UUID)
   private UUID id;
@@ -0,0 +1,24 @@
+package ch.wisv.chpay.core.model.transaction;
+
+import ch.wisv.chpay.core.service.TransactionMonthService;
+import jakarta.persistence.PrePersist;
+import org.springframework.beans.factory.ObjectProvider;
+
+/**
+ * Reports every newly persisted {@link Transaction} to the {@link TransactionMonthService}.
+ * Hibernate creates this listener through Spring, which injects the service; it is looked up
+ * lazily because the service itself depends on the entity manager factory.
+ */
+public class TransactionMonthListener {
+
+  private final ObjectProvider<TransactionMonthService> transactionMonthService;
+
+  public TransactionMonthListener(ObjectProvider<TransactionMonthService> transactionMonthService) {
+    this.transactionMonthService = transactionMonthService;
+  }
+
+  @PrePersist
+  public void onPersist(Transaction transaction) {
+    transactionMonthService.getObject().recordPersist(transaction);
+  }
+}
@@ -0,0 +1,107 @@
+package ch.wisv.chpay.core.repository;
+
+import ch.wisv.chpay.core.model.BalanceHistoryPoint;
+import ch.wisv.chpay.core.model.BalanceLedgerEntry;
+import java.util.List;
+import java.util.UUID;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+public interface BalanceLedgerRepository extends JpaRepository<BalanceLedgerEntry, Long> {
+
+  /** Number of entries of a user that were caused by a transaction. */
+  long countByUserIdAndTransactionIdIsNotNull(UUID userId);
+
+  /** The entries of a user in the order they were made, with the transaction of each one. */
+  @Query(
+      """
+        SELECT e.createdAt AS timestamp, e.balanceAfter AS balance,
+          e.transactionId AS transactionId, t.description AS description, t.type AS type
+        FROM BalanceLedgerEntry e
+        LEFT JOIN Transaction t ON t.id = e.transactionId
+        WHERE e.userId = :userId
+        ORDER BY e.id
+      """)
+  List<BalanceHistoryPoint> findHistoryForUser(@Param("userId") UUID userId);
+
+  /**
+   * The balance of a user at the end of every day or week in which it changed, oldest first. Each
+   * row is {@code [bucketStart, balance]}.
+   *
+   * @param unit the bucket size, {@code day} or {@code week}
+   */
+  @Query(
+      value =
+          """
+           SELECT DISTINCT ON (date_trunc(:unit, e.created_at))
+             date_trunc(:unit, e.created_at), e.balance_after
+           FROM balance_ledger e
+           WHERE e.user_id = :userId
+           ORDER BY date_trunc(:unit, e.created_at), e.id DESC
+           """,
+      nativeQuery = true)
+  List<Object[]> findBucketedHistoryForUser(
+      @Param("userId") UUID userId, @Param("unit") String unit);
+
+  /** The ids of all users that have no ledger entries yet. */
+  @Query(
+      value =
+          """
+           SELECT u.id FROM users u
+           WHERE NOT EXISTS (SELECT 1 FROM balance_ledger e WHERE e.user_id = u.id)
+           """,
+      nativeQuery = true)
+  List<UUID> findUserIdsWithoutEntries();
+
+  /**
+   * Writes the ledger of a user that has no entries yet by replaying their booked transactions in
+   * timestamp order. The user gets an opening entry first, with whatever part of their balance
+   * their transactions do not explain, so the last entry matches {@code users.balance}. The caller
+   * must have locked the user in an earlier statement, so that entries committed while it waited
+   * for the lock are seen here and the user is not written twice.
+   *
+   * @return the number of entries written
+   */
+  @Modifying
+  @Query(
+      value =
+          """
+           WITH locked AS (
+             SELECT u.id, u.balance
+             FROM users u
+             WHERE u.id = :userId
+             AND NOT EXISTS (SELECT 1 FROM balance_ledger e WHERE e.user_id = u.id)
+           ),
+           booked AS (
+             SELECT t.user_id, t.id, t.amount, t.timestamp,
+               SUM(t.amount) OVER (PARTITION BY t.user_id ORDER BY t.timestamp, t.id) AS running,
+               SUM(t.amount) OVER (PARTITION BY t.user_id) AS total,
+               MIN(t.timestamp) OVER (PARTITION BY t.user_id) AS first_at
+             FROM transactions t
+             JOIN locked l ON l.id = t.user_id
+             WHERE t.status IN ('SUCCESSFUL', 'REFUNDED', 'PARTIALLY_REFUNDED')
+           ),
+           replayed AS (
+             SELECT l.id AS user_id, NULL::uuid AS transaction_id, 'OPENING' AS kind,
+               l.balance - COALESCE(b.total, 0) AS amount,
+               l.balance - COALESCE(b.total, 0) AS balance_after,
+               COALESCE(b.first_at, now()::timestamp) AS created_at, 0 AS seq
+             FROM locked l
+             LEFT JOIN (SELECT DISTINCT user_id, total, first_at FROM booked) b ON b.user_id = l.id
+             UNION ALL
+             SELECT b.user_id, b.id, CASE WHEN b.amount < 0 THEN 'DEBIT' ELSE 'CREDIT' END,
+               b.amount, l.balance - b.total + b.running, b.timestamp, 1
+             FROM booked b
+             JOIN locked l ON l.id = b.user_id
+           )
+           INSERT INTO balance_ledger
+             (user_id, transaction_id, kind, amount, balance_after, created_at)
+           SELECT user_id, transaction_id, kind, amount, balance_after, created_at
+           FROM replayed
+           ORDER BY user_id, seq, created_at, transaction_id
+           """,
+      nativeQuery = true)
+  int backfillFromTransactions(@Param("userId") UUID userId);
+}
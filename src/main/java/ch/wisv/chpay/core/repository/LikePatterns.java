@@ -0,0 +1,23 @@
+package ch.wisv.chpay.core.repository;
+
+import java.util.Locale;
+
+/** Builds the patterns of the case-insensitive searches that use {@code LIKE ... ESCAPE '!'}. */
+public final class LikePatterns {
+
+  private LikePatterns() {}
+
+  /**
+   * A pattern that matches lowercased text containing the query. The wildcards % and _ and the
+   * escape character ! in the query are escaped, so they only match themselves.
+   *
+   * @param query the text to search for, or null or blank to match everything
+   * @return the pattern to compare with {@code LOWER(column) LIKE :pattern ESCAPE '!'}
+   */
+  public static String containing(String query) {
+    if (query == null || query.isBlank()) {
+      return "%";
+    }
+    return "%" + query.strip().toLowerCase(Locale.ROOT).replaceAll("[!%_]", "!$0") + "%";
+  }
+}
@@ -5,7 +5,25 @@ import java.time.Instant;
 import java.util.List;
 import java.util.UUID;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 public interface PendingWebhookRepository extends JpaRepository<PendingWebhook, UUID> {
-  List<PendingWebhook> findByStatusAndNextAttemptBefore(PendingWebhook.Status status, Instant time);
+
+  /**
+   * Locks at most {@code limit} pending webhooks that are due, oldest first. Webhooks that another
+   * transaction has locked, such as one claimed by another instance, are skipped.
+   */
+  @Query(
+      value =
+          """
+           SELECT * FROM pending_webhook
+           WHERE status = 'PENDING'
+             AND next_attempt <= :now
+           ORDER BY next_attempt
+           LIMIT :limit
+           FOR UPDATE SKIP LOCKED
+           """,
+      nativeQuery = true)
+  List<PendingWebhook> lockDue(@Param("now") Instant now, @Param("limit") int limit);
 }
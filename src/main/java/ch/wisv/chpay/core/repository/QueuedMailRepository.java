@@ -0,0 +1,29 @@
+package ch.wisv.chpay.core.repository;
+
+import ch.wisv.chpay.core.model.QueuedMail;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+public interface QueuedMailRepository extends JpaRepository<QueuedMail, UUID> {
+
+  /**
+   * Locks at most {@code limit} queued emails that are due, oldest first. Emails that another
+   * transaction has locked, such as ones claimed by another instance, are skipped.
+   */
+  @Query(
+      value =
+          """
+           SELECT * FROM mail_queue
+           WHERE status = 'PENDING'
+             AND next_attempt <= :now
+           ORDER BY next_attempt
+           LIMIT :limit
+           FOR UPDATE SKIP LOCKED
+           """,
+      nativeQuery = true)
+  List<QueuedMail> lockDue(@Param("now") Instant now, @Param("limit") int limit);
+}
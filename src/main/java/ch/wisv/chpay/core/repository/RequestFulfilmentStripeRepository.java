@@ -0,0 +1,26 @@
+package ch.wisv.chpay.core.repository;
+
+import ch.wisv.chpay.core.model.RequestFulfilmentStripe;
+import java.util.UUID;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+public interface RequestFulfilmentStripeRepository
+    extends JpaRepository<RequestFulfilmentStripe, RequestFulfilmentStripe.Key> {
+
+  /** Adds fulfilments to the given stripe of a request, creating the stripe if needed. */
+  @Modifying
+  @Query(
+      value =
+          """
+           INSERT INTO request_fulfilment_stripes (request_id, stripe, fulfilments)
+           VALUES (:requestId, :stripe, :count)
+           ON CONFLICT (request_id, stripe)
+           DO UPDATE SET fulfilments = request_fulfilment_stripes.fulfilments + :count
+           """,
+      nativeQuery = true)
+  void increment(
+      @Param("requestId") UUID requestId, @Param("stripe") int stripe, @Param("count") int count);
+}
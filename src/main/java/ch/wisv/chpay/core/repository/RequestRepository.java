@@ -3,11 +3,13 @@ package ch.wisv.chpay.core.repository;
 import ch.wisv.chpay.core.model.PaymentRequest;
 import jakarta.persistence.LockModeType;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
@@ -19,14 +21,106 @@ public interface RequestRepository extends JpaRepository<PaymentRequest, UUID> {
   @Query("SELECT r FROM PaymentRequest r WHERE r.request_id = :id")
   PaymentRequest findByIdForUpdate(@Param("id") UUID id);
 
+  /** Locks the given single-use requests in id order, so concurrent callers cannot deadlock. */
+  @Lock(LockModeType.PESSIMISTIC_WRITE)
+  @Query(
+      "SELECT r FROM PaymentRequest r WHERE r.request_id IN :ids AND r.multiUse = false ORDER BY r.request_id")
+  List<PaymentRequest> findSingleUseByIdInForUpdate(@Param("ids") Collection<UUID> ids);
+
+  @Query("SELECT r.multiUse FROM PaymentRequest r WHERE r.request_id = :id")
+  Optional<Boolean> findMultiUseById(@Param("id") UUID id);
+
+  /**
+   * Expires at most {@code batchSize} of the requests created before the cutoff that have not
+   * expired yet. Requests that another transaction has locked, such as one that is being paid, are
+   * skipped and left for a later batch.
+   *
+   * @return the number of requests that were expired
+   */
+  @Modifying
+  @Query(
+      value =
+          """
+           WITH old AS (
+             SELECT request_id FROM requests
+             WHERE expired = FALSE
+               AND created_at < :cutoff
+             LIMIT :batchSize
+             FOR UPDATE SKIP LOCKED
+           )
+           UPDATE requests r SET expired = TRUE
+           FROM old o
+           WHERE r.request_id = o.request_id
+           """,
+      nativeQuery = true)
+  int expireCreatedBefore(
+      @Param("cutoff") LocalDateTime cutoff, @Param("batchSize") int batchSize);
+
+  /**
+   * Gets a page of requests created in [start, end), newest first, with their fulfilments and the
+   * totals of their payments and refunds. The page is selected before the totals are computed, so
+   * only the requests on the page are aggregated. Each row is {@code [requestId, createdAt,
+   * description, amount, multiUse, expired, fulfilments, grossAmount, refundedAmount]}.
+   *
+   * @param pattern lowercase LIKE pattern for the description with {@code !} as escape character
+   */
   @Query(
       value =
           """
-           SELECT * FROM requests
-           WHERE expired = FALSE
-             AND created_at < :cutoff
-           FOR UPDATE SKIP LOCKED
+           WITH page AS (
+             SELECT r.request_id, r.created_at, r.description, r.amount, r.multi_use,
+               r.expired, r.fulfilments
+             FROM requests r
+             WHERE r.created_at >= :start
+               AND r.created_at < :end
+               AND ((:includeActive AND NOT r.expired) OR (:includeExpired AND r.expired))
+               AND LOWER(r.description) LIKE :pattern ESCAPE '!'
+             ORDER BY r.created_at DESC, r.request_id DESC
+             LIMIT :limit OFFSET :offset
+           )
+           SELECT p.request_id, p.created_at, p.description, p.amount, p.multi_use, p.expired,
+             p.fulfilments + COALESCE(
+               (SELECT SUM(s.fulfilments) FROM request_fulfilment_stripes s
+                WHERE s.request_id = p.request_id), 0),
+             COALESCE(
+               (SELECT -SUM(t.amount) FROM payment_transaction pt
+                JOIN transactions t ON t.id = pt.id
+                WHERE pt.request_id = p.request_id
+                  AND t.status IN ('SUCCESSFUL', 'REFUNDED', 'PARTIALLY_REFUNDED')), 0),
+             COALESCE(
+               (SELECT SUM(t.amount) FROM payment_transaction pt
+                JOIN refund_transaction rt ON rt.refund_of = pt.id
+                JOIN transactions t ON t.id = rt.id
+                WHERE pt.request_id = p.request_id
+                  AND t.status = 'SUCCESSFUL'), 0)
+           FROM page p
+           ORDER BY p.created_at DESC, p.request_id DESC
            """,
       nativeQuery = true)
-  List<PaymentRequest> findOldRequestsForUpdate(@Param("cutoff") LocalDateTime cutoff);
+  List<Object[]> findSummaries(
+      @Param("start") LocalDateTime start,
+      @Param("end") LocalDateTime end,
+      @Param("includeActive") boolean includeActive,
+      @Param("includeExpired") boolean includeExpired,
+      @Param("pattern") String pattern,
+      @Param("limit") int limit,
+      @Param("offset") long offset);
+
+  /** Counts the requests {@link #findSummaries} pages through. */
+  @Query(
+      """
+        SELECT COUNT(r)
+        FROM PaymentRequest r
+        WHERE r.createdAt >= :start
+        AND r.createdAt < :end
+        AND ((:includeActive = true AND r.expired = false)
+          OR (:includeExpired = true AND r.expired = true))
+        AND LOWER(r.description) LIKE :pattern ESCAPE '!'
+      """)
+  long countSummaries(
+      @Param("start") LocalDateTime start,
+      @Param("end") LocalDateTime end,
+      @Param("includeActive") boolean includeActive,
+      @Param("includeExpired") boolean includeExpired,
+      @Param("pattern") String pattern);
 }
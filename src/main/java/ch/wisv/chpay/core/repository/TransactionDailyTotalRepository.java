@@ -0,0 +1,55 @@
+package ch.wisv.chpay.core.repository;
+
+import ch.wisv.chpay.core.model.TransactionDailyTotal;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+public interface TransactionDailyTotalRepository
+    extends JpaRepository<TransactionDailyTotal, TransactionDailyTotal.Key> {
+
+  /** Sum of the successful top-ups of the days in [start, end). */
+  @Query(
+      """
+        SELECT COALESCE(SUM(d.amount), 0)
+        FROM TransactionDailyTotal d
+        WHERE d.type = 'TOP_UP'
+        AND d.status = 'SUCCESSFUL'
+        AND d.day >= :start
+        AND d.day < :end
+      """)
+  BigDecimal getIncomingSum(@Param("start") LocalDate start, @Param("end") LocalDate end);
+
+  /**
+   * Sum of the booked payments of the days in [start, end), including ones that were refunded
+   * later. Payments are negative, so the sum is too.
+   */
+  @Query(
+      """
+        SELECT COALESCE(SUM(d.amount), 0)
+        FROM TransactionDailyTotal d
+        WHERE d.type = 'PAYMENT'
+        AND d.status IN ('SUCCESSFUL', 'REFUNDED', 'PARTIALLY_REFUNDED')
+        AND d.day >= :start
+        AND d.day < :end
+      """)
+  BigDecimal getPaymentSum(@Param("start") LocalDate start, @Param("end") LocalDate end);
+
+  /** Sum of the successful refunds of the days in [start, end). */
+  @Query(
+      """
+        SELECT COALESCE(SUM(d.amount), 0)
+        FROM TransactionDailyTotal d
+        WHERE d.type = 'REFUND'
+        AND d.status = 'SUCCESSFUL'
+        AND d.day >= :start
+        AND d.day < :end
+      """)
+  BigDecimal getRefundSum(@Param("start") LocalDate start, @Param("end") LocalDate end);
+
+  /** Number of transactions of any type and status. */
+  @Query("SELECT COALESCE(SUM(d.count), 0) FROM TransactionDailyTotal d")
+  long countTransactions();
+}
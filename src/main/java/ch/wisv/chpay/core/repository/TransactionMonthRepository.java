@@ -0,0 +1,70 @@
+package ch.wisv.chpay.core.repository;
+
+import ch.wisv.chpay.core.model.TransactionMonth;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+public interface TransactionMonthRepository
+    extends JpaRepository<TransactionMonth, TransactionMonth.Key> {
+
+  /** Gets the months with transactions in a scope, newest first. */
+  @Query(
+      """
+        SELECT m.month
+        FROM TransactionMonth m
+        WHERE m.scope = :scope
+        AND m.scopeId = :scopeId
+        ORDER BY m.month DESC
+      """)
+  List<LocalDate> findMonths(
+      @Param("scope") TransactionMonth.Scope scope, @Param("scopeId") UUID scopeId);
+
+  /** Gets the newest month with transactions in a scope. */
+  Optional<TransactionMonth> findFirstByScopeAndScopeIdOrderByMonthDesc(
+      TransactionMonth.Scope scope, UUID scopeId);
+
+  /** Marks a month as having transactions in a scope, if it is not marked yet. */
+  @Modifying
+  @Query(
+      value =
+          """
+           INSERT INTO transaction_months (scope, scope_id, month)
+           VALUES (:scope, :scopeId, :month)
+           ON CONFLICT DO NOTHING
+           """,
+      nativeQuery = true)
+  void markActive(
+      @Param("scope") String scope,
+      @Param("scopeId") UUID scopeId,
+      @Param("month") LocalDate month);
+
+  /**
+   * Marks every month of every scope that has transactions, for transactions that were written
+   * before the month index existed.
+   */
+  @Modifying
+  @Query(
+      value =
+          """
+           INSERT INTO transaction_months (scope, scope_id, month)
+           SELECT 'GLOBAL', CAST(:globalId AS uuid), CAST(date_trunc('month', t.timestamp) AS date)
+           FROM transactions t
+           UNION
+           SELECT 'USER', t.user_id, CAST(date_trunc('month', t.timestamp) AS date)
+           FROM transactions t
+           WHERE t.user_id IS NOT NULL
+           UNION
+           SELECT 'REQUEST', p.request_id, CAST(date_trunc('month', t.timestamp) AS date)
+           FROM transactions t
+           JOIN payment_transaction p ON p.id = t.id
+           ON CONFLICT DO NOTHING
+           """,
+      nativeQuery = true)
+  int backfill(@Param("globalId") UUID globalId);
+}
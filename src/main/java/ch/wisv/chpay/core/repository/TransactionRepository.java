@@ -1,42 +1,148 @@
 package ch.wisv.chpay.core.repository;
 
+import ch.wisv.chpay.core.dto.RequestPaymentItem;
+import ch.wisv.chpay.core.dto.TransactionExportRow;
+import ch.wisv.chpay.core.dto.TransactionHistoryItem;
 import ch.wisv.chpay.core.model.PaymentRequest;
 import ch.wisv.chpay.core.model.User;
 import ch.wisv.chpay.core.model.transaction.*;
 import ch.wisv.chpay.core.model.transaction.Transaction.TransactionStatus;
 import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Stream;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 
 public interface TransactionRepository extends JpaRepository<Transaction, UUID> {
   List<Transaction> findByUser(User user);
 
+  /**
+   * First page of a user's history, newest first, of the transactions whose lower-cased
+   * description matches the pattern and, when given, that have the type and status. Served by
+   * idx_transaction_user_time.
+   */
   @Query(
-      "SELECT SUM(t.amount) FROM Transaction t WHERE t.type='TOP_UP' AND t.status='SUCCESSFUL' AND t.timestamp BETWEEN :dateStart AND :dateEnd")
-  BigDecimal getIncomingSum(LocalDateTime dateStart, LocalDateTime dateEnd);
+      """
+        SELECT new ch.wisv.chpay.core.dto.TransactionHistoryItem(
+          t.id, t.timestamp, t.description, t.amount, t.type, t.status)
+        FROM Transaction t
+        WHERE t.user.id = :userId
+        AND LOWER(t.description) LIKE :pattern ESCAPE '!'
+        AND (:type IS NULL OR t.type = :type)
+        AND (:status IS NULL OR t.status = :status)
+        ORDER BY t.timestamp DESC, t.id DESC
+      """)
+  List<TransactionHistoryItem> findHistoryForUser(
+      @Param("userId") UUID userId,
+      @Param("pattern") String pattern,
+      @Param("type") Transaction.TransactionType type,
+      @Param("status") Transaction.TransactionStatus status,
+      Pageable pageable);
 
+  /**
+   * Streams the export rows of a user, newest first. The rows are fetched from a database cursor in
+   * batches, so the stream must be consumed inside a transaction and closed afterwards.
+   */
+  @QueryHints({
+    @QueryHint(name = "org.hibernate.fetchSize", value = "500"),
+    @QueryHint(name = "org.hibernate.readOnly", value = "true")
+  })
   @Query(
-      "SELECT SUM(t.amount) FROM Transaction t WHERE t.type='TOP_UP' AND t.status='SUCCESSFUL' AND t.user=:user AND t.timestamp BETWEEN :dateStart AND :dateEnd")
-  BigDecimal getIncomingSumUser(LocalDateTime dateStart, LocalDateTime dateEnd, User user);
+      """
+        SELECT new ch.wisv.chpay.core.dto.TransactionExportRow(
+          t.id, t.type, u.name, t.description, t.amount, t.status, t.timestamp)
+        FROM Transaction t
+        JOIN t.user u
+        WHERE u.id = :userId
+        AND t.status IN :statuses
+        ORDER BY t.timestamp DESC
+      """)
+  Stream<TransactionExportRow> streamExportRowsForUser(
+      @Param("userId") UUID userId,
+      @Param("statuses") Collection<Transaction.TransactionStatus> statuses);
 
+  /**
+   * Gets the timestamps of the oldest and newest transaction of a user with one of the given
+   * statuses, as a single {@code [min, max]} row. Both are null if there is no such transaction.
+   */
   @Query(
-      "SELECT SUM(t.amount) FROM Transaction t WHERE t.type='PAYMENT' AND (t.status='SUCCESSFUL' OR  t.status='REFUNDED' OR t.status='PARTIALLY_REFUNDED') AND t.timestamp BETWEEN :dateStart AND :dateEnd")
-  BigDecimal getPaymentSum(LocalDateTime dateStart, LocalDateTime dateEnd);
+      """
+        SELECT MIN(t.timestamp), MAX(t.timestamp)
+        FROM Transaction t
+        WHERE t.user.id = :userId
+        AND t.status IN :statuses
+      """)
+  List<Object[]> findTimestampBoundsForUser(
+      @Param("userId") UUID userId,
+      @Param("statuses") Collection<Transaction.TransactionStatus> statuses);
 
+  /**
+   * Streams the export rows of all transactions in [start, end), newest first. See {@link
+   * #streamExportRowsForUser} for how the stream must be used.
+   */
+  @QueryHints({
+    @QueryHint(name = "org.hibernate.fetchSize", value = "500"),
+    @QueryHint(name = "org.hibernate.readOnly", value = "true")
+  })
   @Query(
-      "SELECT SUM(t.amount) FROM Transaction t WHERE t.type='PAYMENT' AND (t.status='SUCCESSFUL' OR  t.status='REFUNDED' OR t.status='PARTIALLY_REFUNDED') AND t.user=:user AND t.timestamp BETWEEN :dateStart AND :dateEnd")
-  BigDecimal getPaymentSumUser(LocalDateTime dateStart, LocalDateTime dateEnd, User user);
+      """
+        SELECT new ch.wisv.chpay.core.dto.TransactionExportRow(
+          t.id, t.type, u.name, t.description, t.amount, t.status, t.timestamp)
+        FROM Transaction t
+        LEFT JOIN t.user u
+        WHERE t.timestamp >= :start
+        AND t.timestamp < :end
+        AND t.status IN :statuses
+        ORDER BY t.timestamp DESC
+      """)
+  Stream<TransactionExportRow> streamExportRowsBetween(
+      @Param("start") LocalDateTime start,
+      @Param("end") LocalDateTime end,
+      @Param("statuses") Collection<Transaction.TransactionStatus> statuses);
 
+  /**
+   * Page of a user's history after the given (timestamp, id) cursor, newest first, filtered like
+   * {@link #findHistoryForUser}.
+   */
   @Query(
-      "SELECT SUM(t.amount) FROM Transaction t WHERE t.type='REFUND' AND t.status='SUCCESSFUL' AND t.timestamp BETWEEN :dateStart AND :dateEnd")
-  BigDecimal getRefundSum(LocalDateTime dateStart, LocalDateTime dateEnd);
+      """
+        SELECT new ch.wisv.chpay.core.dto.TransactionHistoryItem(
+          t.id, t.timestamp, t.description, t.amount, t.type, t.status)
+        FROM Transaction t
+        WHERE t.user.id = :userId
+        AND (t.timestamp < :timestamp OR (t.timestamp = :timestamp AND t.id < :id))
+        AND LOWER(t.description) LIKE :pattern ESCAPE '!'
+        AND (:type IS NULL OR t.type = :type)
+        AND (:status IS NULL OR t.status = :status)
+        ORDER BY t.timestamp DESC, t.id DESC
+      """)
+  List<TransactionHistoryItem> findHistoryForUserBefore(
+      @Param("userId") UUID userId,
+      @Param("timestamp") LocalDateTime timestamp,
+      @Param("id") UUID id,
+      @Param("pattern") String pattern,
+      @Param("type") Transaction.TransactionType type,
+      @Param("status") Transaction.TransactionStatus status,
+      Pageable pageable);
+
+  @Query(
+      "SELECT SUM(t.amount) FROM Transaction t WHERE t.type='TOP_UP' AND t.status='SUCCESSFUL' AND t.user=:user AND t.timestamp BETWEEN :dateStart AND :dateEnd")
+  BigDecimal getIncomingSumUser(LocalDateTime dateStart, LocalDateTime dateEnd, User user);
+
+  @Query(
+      "SELECT SUM(t.amount) FROM Transaction t WHERE t.type='PAYMENT' AND (t.status='SUCCESSFUL' OR  t.status='REFUNDED' OR t.status='PARTIALLY_REFUNDED') AND t.user=:user AND t.timestamp BETWEEN :dateStart AND :dateEnd")
+  BigDecimal getPaymentSumUser(LocalDateTime dateStart, LocalDateTime dateEnd, User user);
 
   @Query(
       "SELECT SUM(t.amount) FROM Transaction t WHERE t.type='REFUND' AND t.status='SUCCESSFUL' AND t.user=:user AND t.timestamp BETWEEN :dateStart AND :dateEnd")
@@ -72,24 +178,72 @@ public interface TransactionRepository extends JpaRepository<Transaction, UUID>
   Optional<PaymentTransaction> findFirstByUserAndRequestAndStatus(
       User user, PaymentRequest request, Transaction.TransactionStatus status);
 
-  @Query("SELECT t.id FROM Transaction t WHERE t.status = :status AND t.timestamp < :cutoff")
-  List<UUID> findExpiredTransactionIds(Transaction.TransactionStatus status, LocalDateTime cutoff);
+  /**
+   * The current status of a transaction, read from the database rather than from an entity that
+   * may have been loaded before the status changed.
+   */
+  @Query("SELECT t.status FROM Transaction t WHERE t.id = :id")
+  Optional<Transaction.TransactionStatus> findStatusById(@Param("id") UUID id);
+
+  /** The payments that earlier taps of a user with one of the given client tap ids created. */
+  @Query(
+      """
+        SELECT pt FROM PaymentTransaction pt
+        WHERE pt.clientTapUserId = :userId
+        AND pt.clientTapId IN :clientTapIds
+      """)
+  List<PaymentTransaction> findTapsOfUser(
+      @Param("userId") UUID userId, @Param("clientTapIds") Collection<String> clientTapIds);
+
+  /**
+   * Fails at most {@code batchSize} of the oldest pending transactions created before the cutoff.
+   * Rows that another transaction has locked, such as a payment that is being settled, are
+   * skipped and left for a later batch.
+   *
+   * @return the number of transactions that were failed
+   */
+  @Modifying
+  @Query(
+      value =
+          """
+           WITH expired AS (
+             SELECT id FROM transactions
+             WHERE status = 'PENDING'
+               AND timestamp < :cutoff
+             ORDER BY timestamp
+             LIMIT :batchSize
+             FOR UPDATE SKIP LOCKED
+           )
+           UPDATE transactions t SET status = 'FAILED'
+           FROM expired e
+           WHERE t.id = e.id
+           """,
+      nativeQuery = true)
+  int failPendingBefore(
+      @Param("cutoff") LocalDateTime cutoff, @Param("batchSize") int batchSize);
 
   /**
-   * Find all transactions for a given PaymentRequest ID whose status is SUCCESSFUL, ordered by
-   * timestamp ascendingly.
+   * Payments with the given status of a payment request, in the order in which they were paid,
+   * that were paid after the given ledger entry or whose entry was written since the given time.
+   * The payer's name is fetched in the same query.
    */
   @Query(
       """
-        SELECT t
-          FROM Transaction t
-          JOIN t.request r
-         WHERE r.request_id = :requestId
-           AND t.status      = :status
-         ORDER BY t.timestamp ASC
+        SELECT new ch.wisv.chpay.core.dto.RequestPaymentItem(
+          t.id, u.name, t.amount, t.timestamp, e.id)
+        FROM PaymentTransaction t
+        JOIN t.user u
+        JOIN BalanceLedgerEntry e ON e.transactionId = t.id
+        WHERE t.request.request_id = :requestId
+        AND t.status = :status
+        AND (e.id > :afterEntryId OR e.createdAt >= :since)
+        ORDER BY e.id
       """)
-  List<Transaction> findAllSuccessfulForRequest(
-      @Param("requestId") UUID requestId, @Param("status") TransactionStatus status);
+  List<RequestPaymentItem> findPaymentsForRequestAfter(
+      @Param("requestId") UUID requestId,
+      @Param("status") TransactionStatus status,
+      @Param("afterEntryId") long afterEntryId,
+      @Param("since") LocalDateTime since);
 
   /**
    * Find all transactions for a given PaymentRequest ID whose status is SUCCESSFUL, ordered by
@@ -105,26 +259,17 @@ public interface TransactionRepository extends JpaRepository<Transaction, UUID>
             """)
   List<Transaction> findAllByRequestId(@Param("requestId") UUID requestId);
 
-  /** Find all transactions for a given year and month. */
+  /** Find all transactions in [start, end), newest first. */
   @Query(
       """
         SELECT t
         FROM Transaction t
-        WHERE YEAR(t.timestamp) = :year
-        AND MONTH(t.timestamp) = :month
+        WHERE t.timestamp >= :start
+        AND t.timestamp < :end
         ORDER BY t.timestamp DESC
       """)
-  List<Transaction> findTransactionsByYearAndMonth(
-      @Param("year") int year, @Param("month") int month);
-
-  /** Get distinct year-month combinations from all transactions. */
-  @Query(
-      """
-        SELECT DISTINCT YEAR(t.timestamp), MONTH(t.timestamp)
-        FROM Transaction t
-        ORDER BY YEAR(t.timestamp) DESC, MONTH(t.timestamp) DESC
-      """)
-  List<Object[]> findDistinctYearMonthCombinations();
+  List<Transaction> findTransactionsBetween(
+      @Param("start") LocalDateTime start, @Param("end") LocalDateTime end);
 
   /** Find all transactions for a given user ID. */
   @Query(
@@ -136,51 +281,34 @@ public interface TransactionRepository extends JpaRepository<Transaction, UUID>
       """)
   List<Transaction> findAllByUserId(@Param("userId") UUID userId);
 
-  /** Find all transactions for a given user ID and year-month. */
+  /** Find all transactions of a given user ID in [start, end), newest first. */
   @Query(
       """
         SELECT t
         FROM Transaction t
         WHERE t.user.id = :userId
-        AND YEAR(t.timestamp) = :year
-        AND MONTH(t.timestamp) = :month
+        AND t.timestamp >= :start
+        AND t.timestamp < :end
         ORDER BY t.timestamp DESC
       """)
-  List<Transaction> findTransactionsByUserIdAndYearMonth(
-      @Param("userId") UUID userId, @Param("year") int year, @Param("month") int month);
+  List<Transaction> findTransactionsByUserIdBetween(
+      @Param("userId") UUID userId,
+      @Param("start") LocalDateTime start,
+      @Param("end") LocalDateTime end);
 
-  /** Find all transactions for a given payment request ID and year-month. */
+  /** Find all transactions for a given payment request ID in [start, end), newest first. */
   @Query(
       """
         SELECT t
         FROM Transaction t
         JOIN t.request r
         WHERE r.request_id = :requestId
-        AND YEAR(t.timestamp) = :year
-        AND MONTH(t.timestamp) = :month
+        AND t.timestamp >= :start
+        AND t.timestamp < :end
         ORDER BY t.timestamp DESC
       """)
-  List<Transaction> findTransactionsByRequestIdAndYearMonth(
-      @Param("requestId") UUID requestId, @Param("year") int year, @Param("month") int month);
-
-  /** Get distinct year-month combinations for a specific user. */
-  @Query(
-      """
-        SELECT DISTINCT YEAR(t.timestamp), MONTH(t.timestamp)
-        FROM Transaction t
-        WHERE t.user.id = :userId
-        ORDER BY YEAR(t.timestamp) DESC, MONTH(t.timestamp) DESC
-      """)
-  List<Object[]> findDistinctYearMonthCombinationsByUserId(@Param("userId") UUID userId);
-
-  /** Get distinct year-month combinations for a specific payment request. */
-  @Query(
-      """
-        SELECT DISTINCT YEAR(t.timestamp), MONTH(t.timestamp)
-        FROM Transaction t
-        JOIN t.request r
-        WHERE r.request_id = :requestId
-        ORDER BY YEAR(t.timestamp) DESC, MONTH(t.timestamp) DESC
-      """)
-  List<Object[]> findDistinctYearMonthCombinationsByRequestId(@Param("requestId") UUID requestId);
+  List<Transaction> findTransactionsByRequestIdBetween(
+      @Param("requestId") UUID requestId,
+      @Param("start") LocalDateTime start,
+      @Param("end") LocalDateTime end);
 }
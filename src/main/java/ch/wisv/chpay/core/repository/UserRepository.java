@@ -1,10 +1,17 @@
 package ch.wisv.chpay.core.repository;
 
+import ch.wisv.chpay.config.CacheConfig;
 import ch.wisv.chpay.core.model.User;
+import ch.wisv.chpay.core.model.UserSummary;
 import jakarta.persistence.LockModeType;
 import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Query;
@@ -16,6 +23,31 @@ public interface UserRepository extends JpaRepository<User, UUID> {
 
   Optional<User> findById(UUID id);
 
+  /**
+   * Resolves an OpenID subject to a user id. Cached, see {@link
+   * ch.wisv.chpay.core.service.UserIdentityCache} for eviction.
+   */
+  @Cacheable(value = CacheConfig.USER_ID_BY_OPEN_ID, unless = "#result == null")
+  @Query("SELECT u.id FROM User u WHERE u.openID = :openID")
+  Optional<UUID> findIdByOpenID(@Param("openID") String openID);
+
+  Optional<UserSummary> findSummaryById(UUID id);
+
+  /**
+   * Finds the users whose name, email or RFID contains the given LIKE pattern, case-insensitively.
+   * The pattern must be lowercase and use {@code !} as escape character. The lowercased columns
+   * have trigram indexes, see {@link ch.wisv.chpay.config.PostgresSchemaInitializer}.
+   */
+  @Query(
+      """
+        SELECT u
+        FROM User u
+        WHERE LOWER(u.name) LIKE :pattern ESCAPE '!'
+        OR LOWER(u.email) LIKE :pattern ESCAPE '!'
+        OR LOWER(u.rfid) LIKE :pattern ESCAPE '!'
+      """)
+  Page<User> search(@Param("pattern") String pattern, Pageable pageable);
+
   @Query("SELECT SUM(u.balance) FROM User u")
   BigDecimal getBalanceNow();
 
@@ -28,4 +60,53 @@ public interface UserRepository extends JpaRepository<User, UUID> {
   User findByIdForUpdate(@Param("id") UUID id);
 
   Optional<User> findByRfid(String rfid);
+
+  /**
+   * Resolves an RFID tag to a user id. Cached, see {@link
+   * ch.wisv.chpay.core.service.UserIdentityCache} for eviction.
+   */
+  @Cacheable(value = CacheConfig.USER_ID_BY_RFID, unless = "#result == null")
+  @Query("SELECT u.id FROM User u WHERE u.rfid = :rfid")
+  Optional<UUID> findIdByRfid(@Param("rfid") String rfid);
+
+  List<User> findByRfidIn(Collection<String> rfids);
+
+  /** The outcome of {@link #debitAndSettle}. */
+  interface DebitResult {
+    /** The balance after the debit, or null if the balance did not cover the amount. */
+    BigDecimal getBalance();
+
+    /** Whether the transaction was settled, which requires it to be pending and the debit. */
+    Boolean getSettled();
+  }
+
+  /**
+   * Debits a user and settles their pending transaction in one statement. The debit only happens
+   * if the balance covers the amount, and the transaction is only settled if the debit happened.
+   * The caller must roll back when the debit happened but the transaction was not settled, because
+   * it turned out not to be pending.
+   *
+   * @return the new balance, if the user was debited, and whether the transaction was settled
+   */
+  @Query(
+      value =
+          """
+           WITH debited AS (
+             UPDATE users SET balance = balance - :amount
+             WHERE id = :userId AND balance >= :amount
+             RETURNING balance
+           ), settled AS (
+             UPDATE transactions SET status = 'SUCCESSFUL'
+             WHERE id = :transactionId AND status = 'PENDING'
+               AND EXISTS (SELECT 1 FROM debited)
+             RETURNING id
+           )
+           SELECT (SELECT balance FROM debited) AS balance,
+                  EXISTS (SELECT 1 FROM settled) AS settled
+           """,
+      nativeQuery = true)
+  DebitResult debitAndSettle(
+      @Param("userId") UUID userId,
+      @Param("transactionId") UUID transactionId,
+      @Param("amount") BigDecimal amount);
 }
@@ -0,0 +1,101 @@
+package ch.wisv.chpay.core.service;
+
+import ch.wisv.chpay.config.SchemaMigrations;
+import ch.wisv.chpay.core.model.BalanceLedgerEntry;
+import ch.wisv.chpay.core.model.User;
+import ch.wisv.chpay.core.repository.BalanceLedgerRepository;
+import ch.wisv.chpay.core.repository.UserRepository;
+import jakarta.annotation.PostConstruct;
+import java.math.BigDecimal;
+import java.util.UUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Append-only history of balance changes. {@code users.balance} stays the value that overdraft and
+ * maximum-balance checks are made against, so every change recorded here must be made while the
+ * user row is locked; that keeps the per-user entry order identical to the order in which the
+ * balance actually changed. Recording a change is a single insert, so it adds as little as possible
+ * to the time the lock is held.
+ */
+@Service
+public class BalanceLedgerService {
+
+  private static final Logger logger = LoggerFactory.getLogger(BalanceLedgerService.class);
+
+  private final BalanceLedgerRepository ledgerRepository;
+  private final UserRepository userRepository;
+  private final SchemaMigrations schemaMigrations;
+  private final TransactionTemplate transactionTemplate;
+
+  @Autowired
+  public BalanceLedgerService(
+      BalanceLedgerRepository ledgerRepository,
+      UserRepository userRepository,
+      SchemaMigrations schemaMigrations,
+      PlatformTransactionManager transactionManager) {
+    this.ledgerRepository = ledgerRepository;
+    this.userRepository = userRepository;
+    this.schemaMigrations = schemaMigrations;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+  }
+
+  /**
+   * Appends a ledger entry for a balance change that has already been applied to the user.
+   *
+   * @param user the locked user whose balance changed
+   * @param amount the signed amount the balance changed by
+   * @param transactionId the transaction that caused the change
+   */
+  @Transactional(propagation = Propagation.MANDATORY)
+  public void record(User user, BigDecimal amount, UUID transactionId) {
+    record(user.getId(), amount, user.getBalance(), transactionId);
+  }
+
+  /**
+   * Appends a ledger entry for a balance change that was applied directly in the database, while
+   * the user row is still locked by the current transaction.
+   *
+   * @param userId the id of the user whose balance changed
+   * @param amount the signed amount the balance changed by
+   * @param balanceAfter the balance that resulted from the change
+   * @param transactionId the transaction that caused the change
+   */
+  @Transactional(propagation = Propagation.MANDATORY)
+  public void record(UUID userId, BigDecimal amount, BigDecimal balanceAfter, UUID transactionId) {
+    BalanceLedgerEntry.Kind kind =
+        amount.signum() < 0 ? BalanceLedgerEntry.Kind.DEBIT : BalanceLedgerEntry.Kind.CREDIT;
+    ledgerRepository.save(
+        new BalanceLedgerEntry(userId, transactionId, kind, amount, balanceAfter));
+  }
+
+  /**
+   * Writes the ledger of users that have no entries yet, such as users whose balance has not
+   * changed since the ledger was introduced, by replaying their transactions. It runs once, before
+   * requests are accepted, and each user is written in a transaction of its own under their row
+   * lock, so a user whose first entry was made in the meantime is skipped.
+   */
+  @PostConstruct
+  public void backfillHistory() {
+    schemaMigrations.runOnce(
+        "balance_ledger_backfill",
+        () -> {
+          int written = 0;
+          for (UUID userId : ledgerRepository.findUserIdsWithoutEntries()) {
+            written +=
+                transactionTemplate.execute(
+                    status -> {
+                      userRepository.findByIdForUpdate(userId);
+                      return ledgerRepository.backfillFromTransactions(userId);
+                    });
+          }
+          logger.info("Backfilled {} balance ledger entries from transactions", written);
+        });
+  }
+}
@@ -0,0 +1,150 @@
+package ch.wisv.chpay.core.service;
+
+import ch.wisv.chpay.core.model.User;
+import ch.wisv.chpay.core.model.transaction.PaymentTransaction;
+import ch.wisv.chpay.core.repository.TransactionRepository;
+import ch.wisv.chpay.core.repository.UserRepository;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Compares the two ways {@link BalanceService} settles a payment of the user that created it:
+ * locking the user row and writing the new balance back, or a single conditional update. Each path
+ * settles chpay.balance.benchmark.payments pending payments of one user from
+ * chpay.balance.benchmark.threads threads at once, the case in which the row lock is contended,
+ * and the throughput and latency percentiles of both are logged on startup.
+ *
+ * <p>It only runs when chpay.balance.benchmark.enabled is true. It writes a user and its payments
+ * for every path to the database, so it is meant for development databases only.
+ */
+@Component
+@ConditionalOnProperty(name = "chpay.balance.benchmark.enabled", havingValue = "true")
+public class BalancePayBenchmark {
+
+  private static final Logger logger = LoggerFactory.getLogger(BalancePayBenchmark.class);
+
+  private static final BigDecimal PRICE = new BigDecimal("0.01");
+
+  private final UserRepository userRepository;
+  private final TransactionRepository transactionRepository;
+  private final BalanceService balanceService;
+  private final TransactionTemplate transactionTemplate;
+
+  @Value("${chpay.balance.benchmark.payments:2000}")
+  private int payments;
+
+  @Value("${chpay.balance.benchmark.threads:8}")
+  private int threads;
+
+  public BalancePayBenchmark(
+      UserRepository userRepository,
+      TransactionRepository transactionRepository,
+      BalanceService balanceService,
+      PlatformTransactionManager transactionManager) {
+    this.userRepository = userRepository;
+    this.transactionRepository = transactionRepository;
+    this.balanceService = balanceService;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void run() {
+    if (payments <= 0 || threads <= 0) {
+      logger.warn("Pay benchmark needs a positive number of payments and threads");
+      return;
+    }
+    measure("locked", false);
+    measure("conditional", true);
+  }
+
+  private void measure(String path, boolean conditional) {
+    User user = createUser();
+    List<UUID> pending = createPayments(user);
+
+    long[] latencies = new long[payments];
+    AtomicInteger next = new AtomicInteger();
+    AtomicInteger failed = new AtomicInteger();
+    long start = System.nanoTime();
+    try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+      for (int t = 0; t < threads; t++) {
+        executor.execute(
+            () -> {
+              for (int i = next.getAndIncrement(); i < payments; i = next.getAndIncrement()) {
+                long began = System.nanoTime();
+                try {
+                  settle(user, pending.get(i), conditional);
+                } catch (RuntimeException e) {
+                  failed.incrementAndGet();
+                }
+                latencies[i] = System.nanoTime() - began;
+              }
+            });
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+
+    Arrays.sort(latencies);
+    logger.info(
+        "{} path: {} payments on {} threads in {} ms ({} payments/s, {} failed),"
+            + " p50 {} ms, p99 {} ms",
+        path,
+        payments,
+        threads,
+        TimeUnit.NANOSECONDS.toMillis(elapsed),
+        payments * 1_000_000_000L / Math.max(elapsed, 1),
+        failed.get(),
+        millis(latencies[payments / 2]),
+        millis(latencies[(int) (payments * 0.99)]));
+  }
+
+  private User createUser() {
+    String id = "pay-benchmark-" + UUID.randomUUID();
+    BigDecimal balance = PRICE.multiply(BigDecimal.valueOf(payments));
+    return transactionTemplate.execute(
+        status -> userRepository.save(new User("Pay benchmark", id + "@localhost", id, balance)));
+  }
+
+  private List<UUID> createPayments(User user) {
+    return transactionTemplate.execute(
+        status -> {
+          List<UUID> ids = new ArrayList<>(payments);
+          for (int i = 0; i < payments; i++) {
+            PaymentTransaction payment =
+                PaymentTransaction.createPaymentTransaction(
+                    user, PRICE.negate(), "Pay benchmark", null);
+            ids.add(transactionRepository.save(payment).getId());
+          }
+          return ids;
+        });
+  }
+
+  /** Settles one payment the way checkout does: lock the transaction, then settle it. */
+  private void settle(User user, UUID transactionId, boolean conditional) {
+    transactionTemplate.executeWithoutResult(
+        status ->
+            balanceService.settle(
+                user,
+                transactionRepository.findByIdForUpdatePayment(transactionId).orElseThrow(),
+                conditional));
+  }
+
+  private static double millis(long nanos) {
+    return nanos / 1_000_000d;
+  }
+}
@@ -10,17 +10,24 @@ import ch.wisv.chpay.core.model.transaction.TopupTransaction;
 import ch.wisv.chpay.core.model.transaction.Transaction;
 import ch.wisv.chpay.core.repository.TransactionRepository;
 import ch.wisv.chpay.core.repository.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.persistence.EntityManager;
 import jakarta.persistence.LockTimeoutException;
+import jakarta.persistence.PersistenceContext;
 import java.math.BigDecimal;
 import java.util.NoSuchElementException;
+import java.util.UUID;
 import org.hibernate.dialect.lock.PessimisticEntityLockException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.retry.annotation.Backoff;
 import org.springframework.retry.annotation.Recover;
 import org.springframework.retry.annotation.Retryable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 @Service
@@ -29,21 +36,52 @@ public class BalanceService {
   private final UserRepository userRepository;
   private final TransactionRepository transactionRepository;
   private final SettingService settingService;
+  private final BalanceLedgerService balanceLedgerService;
+  private final TransactionEventHub transactionEventHub;
+  private final TransactionMonthService transactionMonthService;
+  private final Timer lockedPayTimer;
+  private final Timer conditionalPayTimer;
   private static final Logger logger = LoggerFactory.getLogger(BalanceService.class);
 
+  @PersistenceContext private EntityManager entityManager;
+
+  /**
+   * Whether payments by the user that created them are settled with a single conditional update
+   * instead of locking and re-reading the user row first.
+   */
+  @Value("${chpay.balance.conditional_debit:false}")
+  private boolean conditionalDebit;
+
   @Autowired
   public BalanceService(
       UserRepository userRepository,
       TransactionRepository transactionRepository,
-      SettingService settingService) {
+      SettingService settingService,
+      BalanceLedgerService balanceLedgerService,
+      TransactionEventHub transactionEventHub,
+      TransactionMonthService transactionMonthService,
+      MeterRegistry meterRegistry) {
     this.userRepository = userRepository;
     this.transactionRepository = transactionRepository;
     this.settingService = settingService;
+    this.balanceLedgerService = balanceLedgerService;
+    this.transactionEventHub = transactionEventHub;
+    this.transactionMonthService = transactionMonthService;
+    this.lockedPayTimer = payTimer(meterRegistry, "locked");
+    this.conditionalPayTimer = payTimer(meterRegistry, "conditional");
+  }
+
+  private static Timer payTimer(MeterRegistry meterRegistry, String path) {
+    return Timer.builder("chpay.balance.pay")
+        .description("Time taken to debit a user and settle their payment")
+        .tag("path", path)
+        .publishPercentiles(0.5, 0.99)
+        .register(meterRegistry);
   }
 
   /**
    * Creates a new transaction tied to the user with the given description and amount, changing the
-   * balance accordingly.
+   * balance accordingly. Pages waiting for the transaction are told once the payment commits.
    *
    * @param user The user to top up.
    */
@@ -54,6 +92,35 @@ public class BalanceService {
           UserNotFoundException,
           IllegalStateException,
           NoSuchElementException {
+    boolean conditional =
+        conditionalDebit
+            && pendingTransaction.getUser() != null
+            && pendingTransaction.getUser().equals(user);
+    Transaction paid = settle(user, pendingTransaction, conditional);
+    transactionEventHub.publishAfterCommit(paid);
+    return paid;
+  }
+
+  /**
+   * Settles a payment on the given path and times it under chpay.balance.pay, so both paths can be
+   * compared on the same workload, see {@link BalancePayBenchmark}.
+   *
+   * @param conditional whether to settle with a conditional update instead of a row lock; only
+   *     allowed for a transaction that the paying user created
+   */
+  @Transactional(propagation = Propagation.MANDATORY)
+  protected Transaction settle(User user, Transaction pendingTransaction, boolean conditional) {
+    if (conditional) {
+      return conditionalPayTimer.record(() -> payConditionally(user, pendingTransaction));
+    }
+    return lockedPayTimer.record(() -> payLocked(user, pendingTransaction));
+  }
+
+  /**
+   * Settles a payment by locking the user row, checking the balance in Java and writing the new
+   * balance back. Needed for anonymous transactions, which are linked to the paying user here.
+   */
+  private Transaction payLocked(User user, Transaction pendingTransaction) {
     User lockedFrom = userRepository.findByIdForUpdate(user.getId());
 
     if (lockedFrom == null) {
@@ -74,17 +141,68 @@ public class BalanceService {
           "Insufficient balance for payment for payment" + pendingTransaction.getId());
     }
 
-    debit(lockedFrom, amount.abs());
+    debit(lockedFrom, amount.abs(), pendingTransaction.getId());
     pendingTransaction.setStatus(Transaction.TransactionStatus.SUCCESSFUL);
 
     // If this was an anonymous transaction, link the user to it now
     if (pendingTransaction.getUser() == null) {
       pendingTransaction.setUser(lockedFrom);
+      transactionMonthService.recordUserLinked(pendingTransaction);
     }
 
     return transactionRepository.save(pendingTransaction);
   }
 
+  /**
+   * Settles a payment with a single statement that debits the user only if their balance covers
+   * the amount and marks the transaction successful in the same round trip. The user row is locked
+   * only for the duration of that statement instead of for a separate read and write.
+   *
+   * @throws InsufficientBalanceException if the balance does not cover the amount
+   * @throws IllegalStateException if the transaction is no longer pending, which rolls back the
+   *     debit
+   */
+  private Transaction payConditionally(User user, Transaction pendingTransaction) {
+    BigDecimal amount = pendingTransaction.getAmount().abs();
+
+    UserRepository.DebitResult result =
+        userRepository.debitAndSettle(user.getId(), pendingTransaction.getId(), amount);
+    if (result.getBalance() == null) {
+      throw new InsufficientBalanceException(
+          "Insufficient balance for payment " + pendingTransaction.getId());
+    }
+    if (!Boolean.TRUE.equals(result.getSettled())) {
+      throw new IllegalStateException("Transaction is not in pending state");
+    }
+
+    balanceLedgerService.record(
+        user.getId(), amount.negate(), result.getBalance(), pendingTransaction.getId());
+
+    // The statement changed both rows behind Hibernate's back, so reload them rather than let a
+    // stale copy be written back or handed out.
+    entityManager.refresh(pendingTransaction);
+    if (entityManager.contains(user)) {
+      entityManager.refresh(user);
+    }
+    return pendingTransaction;
+  }
+
+  /**
+   * Debits a user that the caller has already locked, for a payment that is created as successful
+   * straight away. The user is not flushed, so a caller charging several payments writes the user
+   * row once.
+   *
+   * @param lockedUser The locked user to subtract the money from.
+   * @param amount The amount to subtract from the balance. Must be a positive number.
+   * @param transactionId The payment that causes the change.
+   */
+  @Transactional(propagation = Propagation.MANDATORY)
+  protected void debitLocked(User lockedUser, BigDecimal amount, UUID transactionId)
+      throws IllegalArgumentException, InsufficientBalanceException {
+    lockedUser.subtractBalance(amount);
+    balanceLedgerService.record(lockedUser, amount.negate(), transactionId);
+  }
+
   /**
    * Refunds a transaction. Changes the status of the transaction to REFUNDED and creates a new
    * REFUND transaction for logging purposes. The money is added to the user's balance again.
@@ -126,11 +244,13 @@ public class BalanceService {
       throw new IllegalStateException("User is not the same as the one who originally paid");
     }
 
-    credit(lockedFrom, amount.abs());
+    RefundTransaction refund =
+        transactionRepository.save(
+            RefundTransaction.createRefund(lockedFrom, amount.abs(), original));
 
-    RefundTransaction refund = RefundTransaction.createRefund(lockedFrom, amount.abs(), original);
+    credit(lockedFrom, amount.abs(), refund.getId());
 
-    return transactionRepository.save(refund);
+    return refund;
   }
 
   @Recover
@@ -163,9 +283,9 @@ public class BalanceService {
 
   /**
    * Marks a top-up transaction as paid. Changes the status of the transaction to SUCCESSFUL and
-   * adds the amount to the user's balance.
+   * adds the amount to the user's balance. Pages waiting for the top-up are told once this commits.
    *
-   * @param tx The transaction to be marked as paid. Must be a PENDING transaction.
+   * @param tx The transaction to be marked as paid. Must be a PENDING or FAILED transaction.
    */
   @CheckSystemNotFrozen
   @Transactional
@@ -177,16 +297,18 @@ public class BalanceService {
       throw new UserNotFoundException("User not found");
     }
 
-    credit(lockedFrom, tx.getAmount());
+    credit(lockedFrom, tx.getAmount(), tx.getId());
 
     userRepository.save(lockedFrom);
 
     tx.setStatus(Transaction.TransactionStatus.SUCCESSFUL);
     transactionRepository.save(tx);
+    transactionEventHub.publishAfterCommit(tx);
   }
 
   /**
-   * Marks a top-up transaction as failed. Changes the status of the transaction to FAILED.
+   * Marks a top-up transaction as failed. Changes the status of the transaction to FAILED. Pages
+   * waiting for the top-up are told once this commits.
    *
    * @param tx The transaction to be marked as failed. Must be a PENDING transaction.
    */
@@ -195,32 +317,39 @@ public class BalanceService {
   public void markTopUpAsFailed(TopupTransaction tx) {
     tx.setStatus(Transaction.TransactionStatus.FAILED);
     transactionRepository.save(tx);
+    transactionEventHub.publishAfterCommit(tx);
   }
 
   /**
    * Internal method to add money to a user's balance. Checks if the balance is within the limit.
+   * The change is appended to the balance ledger.
    *
-   * @param user The user to add the money to.
+   * @param user The locked user to add the money to.
    * @param amount The amount to add to the balance. Must be a positive number.
+   * @param transactionId The transaction that causes the change.
    */
-  private void credit(User user, BigDecimal amount)
+  private void credit(User user, BigDecimal amount, UUID transactionId)
       throws IllegalStateException, IllegalArgumentException {
     settingService.assertBalanceWithinLimit(user.getBalance(), amount);
 
     user.addBalance(amount);
 
     userRepository.saveAndFlush(user);
+    balanceLedgerService.record(user, amount, transactionId);
   }
 
   /**
-   * Internal method to subtract money from a user's balance.
+   * Internal method to subtract money from a user's balance. The change is appended to the balance
+   * ledger.
    *
-   * @param user The user to subtract the money from.
+   * @param user The locked user to subtract the money from.
    * @param amount The amount to subtract from the balance. Must be a positive number.
+   * @param transactionId The transaction that causes the change.
    */
-  private void debit(User user, BigDecimal amount)
+  private void debit(User user, BigDecimal amount, UUID transactionId)
       throws IllegalArgumentException, InsufficientBalanceException {
     user.subtractBalance(amount);
     userRepository.saveAndFlush(user);
+    balanceLedgerService.record(user, amount.negate(), transactionId);
   }
 }
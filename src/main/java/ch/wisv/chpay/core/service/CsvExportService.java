@@ -1,41 +1,105 @@
 package ch.wisv.chpay.core.service;
 
+import ch.wisv.chpay.core.dto.TransactionExportRow;
 import ch.wisv.chpay.core.model.transaction.Transaction;
+import ch.wisv.chpay.core.repository.TransactionRepository;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.time.YearMonth;
+import java.util.UUID;
+import java.util.stream.Stream;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+/**
+ * Writes transaction exports as CSV. Rows are streamed from the database and written to the output
+ * as they arrive, so memory use does not grow with the size of the export.
+ */
 @Service
 public class CsvExportService {
 
+  private final TransactionRepository transactionRepository;
+
+  @Autowired
+  public CsvExportService(TransactionRepository transactionRepository) {
+    this.transactionRepository = transactionRepository;
+  }
+
   /**
-   * Generate CSV for transactions with header row (semicolon separated).
+   * Writes the booked transactions of a user as CSV, newest first.
+   *
+   * @param userId the id of the user to export the transactions of
+   * @param out the stream to write to; it is flushed but not closed
+   */
+  @Transactional(readOnly = true)
+  public void writeUserCsv(UUID userId, OutputStream out) throws IOException {
+    try (Stream<TransactionExportRow> rows =
+        transactionRepository.streamExportRowsForUser(userId, Transaction.BOOKED_STATUSES)) {
+      writeCsv(rows, out);
+    }
+  }
+
+  /**
+   * Writes the booked transactions of all users in a month as CSV, newest first.
+   *
+   * @param yearMonth the month to export
+   * @param out the stream to write to; it is flushed but not closed
+   */
+  @Transactional(readOnly = true)
+  public void writeMonthCsv(YearMonth yearMonth, OutputStream out) throws IOException {
+    try (Stream<TransactionExportRow> rows =
+        transactionRepository.streamExportRowsBetween(
+            yearMonth.atDay(1).atStartOfDay(),
+            yearMonth.plusMonths(1).atDay(1).atStartOfDay(),
+            Transaction.BOOKED_STATUSES)) {
+      writeCsv(rows, out);
+    }
+  }
+
+  /**
+   * Write CSV for transactions with header row (semicolon separated).
    *
    * <p>Columns: Id;Type;Name;Description;Amount;Status;Timestamp
    */
-  public byte[] generateCsv(List<Transaction> transactions) {
-    String csvData =
-        transactions.stream()
-            .map(
-                t ->
-                    t.getId().toString()
-                        + ";"
-                        + t.getType().toString()
-                        + ";"
-                        + (t.getUser() != null ? t.getUser().getName() : "")
-                        + ";"
-                        + sanitize(t.getDescription())
-                        + ";"
-                        + t.getAmount().toPlainString()
-                        + ";"
-                        + t.getStatus().name()
-                        + ";"
-                        + t.getTimestamp().toString())
-            .collect(Collectors.joining("\n"));
-
-    csvData = "Id;Type;Name;Description;Amount;Status;Timestamp\n" + csvData;
-    return csvData.getBytes(StandardCharsets.UTF_8);
+  private static void writeCsv(Stream<TransactionExportRow> rows, OutputStream out)
+      throws IOException {
+    Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    writer.write("Id;Type;Name;Description;Amount;Status;Timestamp");
+
+    try {
+      rows.forEach(row -> writeRow(writer, row));
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+
+    writer.flush();
+  }
+
+  private static void writeRow(Writer writer, TransactionExportRow row) {
+    try {
+      writer.write('\n');
+      writer.write(row.getId().toString());
+      writer.write(';');
+      writer.write(row.getType().toString());
+      writer.write(';');
+      writer.write(row.getUserName() != null ? row.getUserName() : "");
+      writer.write(';');
+      writer.write(sanitize(row.getDescription()));
+      writer.write(';');
+      writer.write(row.getAmount().toPlainString());
+      writer.write(';');
+      writer.write(row.getStatus().name());
+      writer.write(';');
+      writer.write(row.getTimestamp().toString());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
   }
 
   private static String sanitize(String value) {
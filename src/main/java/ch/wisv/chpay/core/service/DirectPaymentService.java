@@ -0,0 +1,185 @@
+package ch.wisv.chpay.core.service;
+
+import ch.wisv.chpay.core.aop.CheckSystemNotFrozen;
+import ch.wisv.chpay.core.exception.UserNotFoundException;
+import ch.wisv.chpay.core.model.PaymentRequest;
+import ch.wisv.chpay.core.model.RequestFulfilmentStripe;
+import ch.wisv.chpay.core.model.User;
+import ch.wisv.chpay.core.model.transaction.PaymentTransaction;
+import ch.wisv.chpay.core.model.transaction.Transaction;
+import ch.wisv.chpay.core.repository.RequestFulfilmentStripeRepository;
+import ch.wisv.chpay.core.repository.RequestRepository;
+import ch.wisv.chpay.core.repository.TransactionRepository;
+import ch.wisv.chpay.core.repository.UserRepository;
+import jakarta.persistence.LockTimeoutException;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.hibernate.dialect.lock.PessimisticEntityLockException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.retry.annotation.Backoff;
+import org.springframework.retry.annotation.Retryable;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Charges card taps directly. Unlike checkout payments there is nobody to confirm a pending
+ * transaction, so each tap becomes a payment that is SUCCESSFUL or FAILED right away.
+ */
+@Service
+public class DirectPaymentService {
+
+  private final UserRepository userRepository;
+  private final RequestRepository requestRepository;
+  private final TransactionRepository transactionRepository;
+  private final RequestFulfilmentStripeRepository fulfilmentStripeRepository;
+  private final BalanceService balanceService;
+  private final TransactionEventHub transactionEventHub;
+
+  /** Why a tap was declined. */
+  public enum Decline {
+    EXPIRED("Request has expired"),
+    FULFILLED("Request has already been fulfilled"),
+    INSUFFICIENT_BALANCE("Insufficient balance"),
+    /** The tap repeats an earlier tap, with the same client tap id, that was declined. */
+    REPEATED("Tap was already declined");
+
+    private final String message;
+
+    Decline(String message) {
+      this.message = message;
+    }
+
+    public String getMessage() {
+      return message;
+    }
+  }
+
+  /**
+   * The payment of a tap, and why it was declined if it was. The reason is the one decided under
+   * the lock, so it matches the state the payment was declined in.
+   */
+  public record TapCharge(PaymentTransaction payment, Decline decline) {}
+
+  @Autowired
+  public DirectPaymentService(
+      UserRepository userRepository,
+      RequestRepository requestRepository,
+      TransactionRepository transactionRepository,
+      RequestFulfilmentStripeRepository fulfilmentStripeRepository,
+      BalanceService balanceService,
+      TransactionEventHub transactionEventHub) {
+    this.userRepository = userRepository;
+    this.requestRepository = requestRepository;
+    this.transactionRepository = transactionRepository;
+    this.fulfilmentStripeRepository = fulfilmentStripeRepository;
+    this.balanceService = balanceService;
+    this.transactionEventHub = transactionEventHub;
+  }
+
+  /**
+   * Charges one user for any number of taps, under a single lock on the user. Taps are charged in
+   * the given order; a tap is declined if its request has expired, was a single-use request that
+   * is already paid, or costs more than the remaining balance. A tap whose client tap id the user
+   * already used is not charged again, and its earlier payment is returned instead. A tap without
+   * a client tap id, under the null key, is never taken for a repeat.
+   *
+   * @param userId the id of the user that tapped
+   * @param taps the id of the request each tap pays for, by client tap id, in tap order
+   * @return the charge of each tap by client tap id; taps for unknown requests are left out
+   */
+  @CheckSystemNotFrozen
+  @Retryable(
+      retryFor = {PessimisticEntityLockException.class, LockTimeoutException.class},
+      notRecoverable = {UserNotFoundException.class, IllegalStateException.class},
+      backoff = @Backoff(delay = 200, multiplier = 2))
+  @Transactional
+  public Map<String, TapCharge> chargeTaps(UUID userId, Map<String, UUID> taps)
+      throws UserNotFoundException, IllegalStateException {
+    User lockedUser = userRepository.findByIdForUpdate(userId);
+
+    if (lockedUser == null) {
+      throw new UserNotFoundException("User not found");
+    }
+
+    Map<String, TapCharge> charges = new LinkedHashMap<>();
+    Set<String> tapIds =
+        taps.keySet().stream().filter(Objects::nonNull).collect(Collectors.toSet());
+    if (!tapIds.isEmpty()) {
+      for (PaymentTransaction earlier : transactionRepository.findTapsOfUser(userId, tapIds)) {
+        boolean declined = earlier.getStatus() == Transaction.TransactionStatus.FAILED;
+        charges.put(
+            earlier.getClientTapId(), new TapCharge(earlier, declined ? Decline.REPEATED : null));
+      }
+    }
+
+    // Single-use requests are locked first, so the lookup below returns them with fresh state.
+    Set<UUID> requestIds = new HashSet<>(taps.values());
+    requestRepository.findSingleUseByIdInForUpdate(requestIds);
+    Map<UUID, PaymentRequest> requests =
+        requestRepository.findAllById(requestIds).stream()
+            .collect(Collectors.toMap(PaymentRequest::getRequest_id, Function.identity()));
+
+    Map<UUID, Integer> multiUseFulfilments = new HashMap<>();
+    for (Map.Entry<String, UUID> tap : taps.entrySet()) {
+      PaymentRequest request = requests.get(tap.getValue());
+      if (request == null || charges.containsKey(tap.getKey())) {
+        continue;
+      }
+
+      BigDecimal amount = request.getAmount();
+      Decline decline;
+      if (request.isExpired()) {
+        decline = Decline.EXPIRED;
+      } else if (!request.isMultiUse() && request.getFulfilments() > 0) {
+        decline = Decline.FULFILLED;
+      } else if (lockedUser.getBalance().compareTo(amount) < 0) {
+        decline = Decline.INSUFFICIENT_BALANCE;
+      } else {
+        decline = null;
+      }
+      boolean charged = decline == null;
+
+      PaymentTransaction payment =
+          transactionRepository.save(
+              PaymentTransaction.createDirectPayment(
+                  lockedUser,
+                  amount.negate(),
+                  request.getDescription(),
+                  request,
+                  charged
+                      ? Transaction.TransactionStatus.SUCCESSFUL
+                      : Transaction.TransactionStatus.FAILED,
+                  tap.getKey()));
+
+      if (charged) {
+        balanceService.debitLocked(lockedUser, amount, payment.getId());
+        transactionEventHub.publishAfterCommit(payment);
+        if (request.isMultiUse()) {
+          multiUseFulfilments.merge(request.getRequest_id(), 1, Integer::sum);
+        } else {
+          request.addFulfilment();
+        }
+      }
+
+      charges.put(tap.getKey(), new TapCharge(payment, decline));
+    }
+
+    multiUseFulfilments.forEach(
+        (requestId, count) ->
+            fulfilmentStripeRepository.increment(
+                requestId,
+                ThreadLocalRandom.current().nextInt(RequestFulfilmentStripe.STRIPES),
+                count));
+
+    return charges;
+  }
+}
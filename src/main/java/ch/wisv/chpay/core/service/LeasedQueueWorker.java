@@ -0,0 +1,126 @@
+package ch.wisv.chpay.core.service;
+
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Works through a queue table of which several instances may read at the same time. A run claims
+ * up to batch size due items by moving their next attempt past a lease, so other instances skip
+ * them and an item whose processing was cut short by a crash is picked up again once the lease
+ * runs out. Runs keep claiming batches until the queue has no more due items.
+ *
+ * <p>Only one run is active per instance. A run that is requested while another one is active
+ * makes that run go over the queue once more, so newly queued items are never left waiting for the
+ * next scheduled run. Failed items are retried with a jittered exponential backoff up to
+ * MAX_RETRIES attempts.
+ *
+ * @param <T> the type of the queued items
+ */
+public abstract class LeasedQueueWorker<T> {
+
+  protected static final int MAX_RETRIES = 5;
+
+  private static final long BASE_BACKOFF_SECONDS = 60;
+
+  protected final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+  private final TransactionTemplate transactionTemplate;
+  private final AtomicBoolean running = new AtomicBoolean();
+  private final AtomicBoolean requested = new AtomicBoolean();
+
+  protected LeasedQueueWorker(PlatformTransactionManager transactionManager) {
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+  }
+
+  /** Processes all due items, or makes the active run do so once more if there is one. */
+  protected void run() {
+    requested.set(true);
+    while (requested.get() && running.compareAndSet(false, true)) {
+      try {
+        requested.set(false);
+        processDue();
+      } finally {
+        running.set(false);
+      }
+    }
+  }
+
+  /** Starts a run on a virtual thread, for instance once new items have been queued. */
+  protected void runAsync() {
+    executor.execute(this::run);
+  }
+
+  private void processDue() {
+    int batchSize = batchSize();
+    List<T> claimed;
+    do {
+      claimed = claimDue(batchSize);
+      if (!claimed.isEmpty()) {
+        process(claimed);
+      }
+    } while (!claimed.isEmpty() && claimed.size() == batchSize);
+  }
+
+  private List<T> claimDue(int batchSize) {
+    return transactionTemplate.execute(
+        status -> {
+          Instant now = Instant.now();
+          Instant leasedUntil = now.plus(lease());
+          List<T> due = lockDue(now, batchSize);
+          for (T item : due) {
+            setNextAttempt(item, leasedUntil);
+          }
+          return due;
+        });
+  }
+
+  /**
+   * Schedules the next attempt of an item that failed, unless it has used up its attempts.
+   *
+   * @param item the item that failed
+   * @param retries the number of failed attempts so far, including this one
+   * @return false if the item has reached MAX_RETRIES and should be given up on
+   */
+  protected boolean retryLater(T item, int retries) {
+    if (retries >= MAX_RETRIES) {
+      return false;
+    }
+    setNextAttempt(item, Instant.now().plus(backoff(retries)));
+    return true;
+  }
+
+  /**
+   * Exponential backoff with equal jitter: half of the delay is fixed, the other half is random, so
+   * items that failed together do not all come back at the same moment.
+   */
+  private static Duration backoff(int retries) {
+    long delay = BASE_BACKOFF_SECONDS << retries;
+    return Duration.ofSeconds(delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+  }
+
+  /** The maximum number of items claimed at once. */
+  protected abstract int batchSize();
+
+  /** How long claimed items are kept from other instances. */
+  protected abstract Duration lease();
+
+  /** Locks up to limit items that are due at now, skipping those locked by other instances. */
+  protected abstract List<T> lockDue(Instant now, int limit);
+
+  protected abstract void setNextAttempt(T item, Instant nextAttempt);
+
+  /** Processes a claimed batch and stores the outcome of every item. */
+  protected abstract void process(List<T> batch);
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdown();
+  }
+}
@@ -1,15 +1,26 @@
 package ch.wisv.chpay.core.service;
 
+import ch.wisv.chpay.core.dto.TransactionExportRow;
 import ch.wisv.chpay.core.model.User;
 import ch.wisv.chpay.core.model.transaction.Transaction;
+import ch.wisv.chpay.core.repository.TransactionRepository;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.math.BigDecimal;
 import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
-import java.util.List;
+import java.util.Iterator;
 import java.util.Locale;
 import java.util.UUID;
+import java.util.stream.Stream;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 @Service
 public class OfxExportService {
@@ -17,128 +28,137 @@ public class OfxExportService {
   private static final DateTimeFormatter OFX_DATE_TIME =
       DateTimeFormatter.ofPattern("yyyyMMddHHmmss", Locale.ROOT).withZone(ZoneId.systemDefault());
 
+  private final TransactionRepository transactionRepository;
+
+  @Autowired
+  public OfxExportService(TransactionRepository transactionRepository) {
+    this.transactionRepository = transactionRepository;
+  }
+
   /**
-   * Generate OFX content (OFX 1.x SGML) for a user's transactions.
+   * Write OFX content (OFX 1.x SGML) for a user's booked transactions. The statement period comes
+   * from an aggregate query and the transactions are streamed from the database straight to the
+   * output, so memory use does not grow with the number of transactions. The ledger balance is the
+   * sum of the streamed transactions.
    *
    * @param user owner of the transactions
-   * @param transactions transactions to include
-   * @return bytes of the OFX file (UTF-8)
+   * @param out the stream to write the OFX file (UTF-8) to; it is flushed but not closed
    */
-  public byte[] generateOfx(User user, List<Transaction> transactions) {
-    StringBuilder sb = new StringBuilder();
+  @Transactional(readOnly = true)
+  public void writeOfx(User user, OutputStream out) throws IOException {
+    Writer w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
 
     // SGML header (OFX 1.02) using UNICODE/UTF-8 to match produced bytes
-    sb.append("OFXHEADER:100\n");
-    sb.append("DATA:OFXSGML\n");
-    sb.append("VERSION:102\n");
-    sb.append("SECURITY:NONE\n");
-    sb.append("ENCODING:UNICODE\n");
-    sb.append("CHARSET:UTF-8\n");
-    sb.append("COMPRESSION:NONE\n");
-    sb.append("OLDFILEUID:NONE\n");
-    sb.append("NEWFILEUID:").append(UUID.randomUUID()).append('\n');
+    w.write("OFXHEADER:100\n");
+    w.write("DATA:OFXSGML\n");
+    w.write("VERSION:102\n");
+    w.write("SECURITY:NONE\n");
+    w.write("ENCODING:UNICODE\n");
+    w.write("CHARSET:UTF-8\n");
+    w.write("COMPRESSION:NONE\n");
+    w.write("OLDFILEUID:NONE\n");
+    w.write("NEWFILEUID:" + UUID.randomUUID() + "\n");
 
     // Body
-    sb.append("<OFX>\n");
-    sb.append("  <SIGNONMSGSRSV1>\n");
-    sb.append("    <SONRS>\n");
-    sb.append("      <STATUS>\n");
-    sb.append("        <CODE>0\n");
-    sb.append("        <SEVERITY>INFO\n");
-    sb.append("      </STATUS>\n");
-    sb.append("      <DTSERVER>")
-        .append(OFX_DATE_TIME.format(java.time.Instant.now()))
-        .append('\n');
-    sb.append("      <LANGUAGE>ENG\n");
-    sb.append("      <FI>\n");
-    sb.append("        <ORG>W.I.S.V. 'Christiaan Huygens'\n");
-    sb.append("        <FID>CHPAY\n");
-    sb.append("      </FI>\n");
-    sb.append("    </SONRS>\n");
-    sb.append("  </SIGNONMSGSRSV1>\n");
+    w.write("<OFX>\n");
+    w.write("  <SIGNONMSGSRSV1>\n");
+    w.write("    <SONRS>\n");
+    w.write("      <STATUS>\n");
+    w.write("        <CODE>0\n");
+    w.write("        <SEVERITY>INFO\n");
+    w.write("      </STATUS>\n");
+    w.write("      <DTSERVER>" + OFX_DATE_TIME.format(java.time.Instant.now()) + "\n");
+    w.write("      <LANGUAGE>ENG\n");
+    w.write("      <FI>\n");
+    w.write("        <ORG>W.I.S.V. 'Christiaan Huygens'\n");
+    w.write("        <FID>CHPAY\n");
+    w.write("      </FI>\n");
+    w.write("    </SONRS>\n");
+    w.write("  </SIGNONMSGSRSV1>\n");
 
     // Use BANKMSGSRSV1/STMTRS as a generic statement container
-    sb.append("  <BANKMSGSRSV1>\n");
-    sb.append("    <STMTTRNRS>\n");
-    sb.append("      <TRNUID>").append(UUID.randomUUID()).append('\n');
-    sb.append("      <STATUS>\n");
-    sb.append("        <CODE>0\n");
-    sb.append("        <SEVERITY>INFO\n");
-    sb.append("      </STATUS>\n");
-    sb.append("      <STMTRS>\n");
-    sb.append("        <CURDEF>EUR\n");
-    sb.append("        <BANKACCTFROM>\n");
-    sb.append("          <BANKID>CHPAY\n");
-    sb.append("          <BRANCHID>CH\n");
-    sb.append("          <ACCTID>")
-        .append(user.getId() != null ? user.getId() : UUID.randomUUID())
-        .append('\n');
-    sb.append("          <ACCTTYPE>CHECKING\n");
-    sb.append("        </BANKACCTFROM>\n");
-
-    sb.append("        <BANKTRANLIST>\n");
+    w.write("  <BANKMSGSRSV1>\n");
+    w.write("    <STMTTRNRS>\n");
+    w.write("      <TRNUID>" + UUID.randomUUID() + "\n");
+    w.write("      <STATUS>\n");
+    w.write("        <CODE>0\n");
+    w.write("        <SEVERITY>INFO\n");
+    w.write("      </STATUS>\n");
+    w.write("      <STMTRS>\n");
+    w.write("        <CURDEF>EUR\n");
+    w.write("        <BANKACCTFROM>\n");
+    w.write("          <BANKID>CHPAY\n");
+    w.write("          <BRANCHID>CH\n");
+    UUID accountId = user.getId() != null ? user.getId() : UUID.randomUUID();
+    w.write("          <ACCTID>" + accountId + "\n");
+    w.write("          <ACCTTYPE>CHECKING\n");
+    w.write("        </BANKACCTFROM>\n");
+
+    w.write("        <BANKTRANLIST>\n");
     // Add DTSTART/DTEND based on min/max timestamps
-    java.time.Instant minTs = null;
-    java.time.Instant maxTs = null;
-    for (Transaction tx : transactions) {
-      java.time.Instant ts = tx.getTimestamp().atZone(ZoneId.systemDefault()).toInstant();
-      if (minTs == null || ts.isBefore(minTs)) {
-        minTs = ts;
-      }
-      if (maxTs == null || ts.isAfter(maxTs)) {
-        maxTs = ts;
-      }
-    }
-    if (minTs != null) {
-      sb.append("          <DTSTART>").append(OFX_DATE_TIME.format(minTs)).append('\n');
+    Object[] bounds =
+        transactionRepository
+            .findTimestampBoundsForUser(user.getId(), Transaction.BOOKED_STATUSES)
+            .get(0);
+    if (bounds[0] != null) {
+      w.write("          <DTSTART>" + formatDate((LocalDateTime) bounds[0]) + "\n");
     }
-    if (maxTs != null) {
-      sb.append("          <DTEND>").append(OFX_DATE_TIME.format(maxTs)).append('\n');
+    if (bounds[1] != null) {
+      w.write("          <DTEND>" + formatDate((LocalDateTime) bounds[1]) + "\n");
     }
-    for (Transaction tx : transactions) {
-      appendTransaction(sb, tx);
+
+    BigDecimal ledgerBalance = BigDecimal.ZERO;
+    try (Stream<TransactionExportRow> rows =
+        transactionRepository.streamExportRowsForUser(user.getId(), Transaction.BOOKED_STATUSES)) {
+      Iterator<TransactionExportRow> it = rows.iterator();
+      while (it.hasNext()) {
+        TransactionExportRow tx = it.next();
+        writeTransaction(w, tx);
+        if (tx.getAmount() != null) {
+          ledgerBalance = ledgerBalance.add(tx.getAmount());
+        }
+      }
     }
-    sb.append("        </BANKTRANLIST>\n");
-
-    // Ledger balance is not tracked here; emit zero to keep format valid
-    sb.append("        <LEDGERBAL>\n");
-    sb.append("          <BALAMT>0.00\n");
-    sb.append("          <DTASOF>")
-        .append(OFX_DATE_TIME.format(java.time.Instant.now()))
-        .append('\n');
-    sb.append("        </LEDGERBAL>\n");
-
-    sb.append("      </STMTRS>\n");
-    sb.append("    </STMTTRNRS>\n");
-    sb.append("  </BANKMSGSRSV1>\n");
-    sb.append("</OFX>\n");
-
-    return sb.toString().getBytes(StandardCharsets.UTF_8);
+    w.write("        </BANKTRANLIST>\n");
+
+    w.write("        <LEDGERBAL>\n");
+    w.write("          <BALAMT>" + formatAmount(ledgerBalance) + "\n");
+    w.write("          <DTASOF>" + OFX_DATE_TIME.format(java.time.Instant.now()) + "\n");
+    w.write("        </LEDGERBAL>\n");
+
+    w.write("      </STMTRS>\n");
+    w.write("    </STMTTRNRS>\n");
+    w.write("  </BANKMSGSRSV1>\n");
+    w.write("</OFX>\n");
+
+    w.flush();
   }
 
-  private static void appendTransaction(StringBuilder sb, Transaction tx) {
-    sb.append("          <STMTTRN>\n");
-    sb.append("            <TRNTYPE>").append(mapType(tx)).append('\n');
-    sb.append("            <DTPOSTED>")
-        .append(OFX_DATE_TIME.format(tx.getTimestamp().atZone(ZoneId.systemDefault())))
-        .append('\n');
-    sb.append("            <TRNAMT>").append(formatAmount(tx.getAmount())).append('\n');
-    sb.append("            <FITID>").append(tx.getId()).append('\n');
+  private static void writeTransaction(Writer w, TransactionExportRow tx) throws IOException {
+    w.write("          <STMTTRN>\n");
+    w.write("            <TRNTYPE>" + mapType(tx) + "\n");
+    w.write("            <DTPOSTED>" + formatDate(tx.getTimestamp()) + "\n");
+    w.write("            <TRNAMT>" + formatAmount(tx.getAmount()) + "\n");
+    w.write("            <FITID>" + tx.getId() + "\n");
     // Payee name: use Mollie for top-ups, W.I.S.V. for other transactions
     String payeeName =
         tx.getType() == Transaction.TransactionType.TOP_UP
             ? "Mollie"
             : "W.I.S.V. 'Christiaan Huygens'";
-    sb.append("            <NAME>").append(payeeName).append('\n');
+    w.write("            <NAME>" + payeeName + "\n");
     // Use MEMO for the transaction description
     String memo = sanitize(tx.getDescription());
-    if (memo != null && !memo.isEmpty()) {
-      sb.append("            <MEMO>").append(memo).append('\n');
+    if (!memo.isEmpty()) {
+      w.write("            <MEMO>" + memo + "\n");
     }
-    sb.append("          </STMTTRN>\n");
+    w.write("          </STMTTRN>\n");
+  }
+
+  private static String formatDate(LocalDateTime timestamp) {
+    return OFX_DATE_TIME.format(timestamp.atZone(ZoneId.systemDefault()));
   }
 
-  private static String mapType(Transaction tx) {
+  private static String mapType(TransactionExportRow tx) {
     // Map using sign and type, keeping TRNTYPE simple and import-friendly
     if (tx.getAmount() == null) {
       return "OTHER";
@@ -1,50 +1,76 @@
 package ch.wisv.chpay.core.service;
 
-import ch.wisv.chpay.core.model.PaymentRequest;
 import ch.wisv.chpay.core.repository.RequestRepository;
-import jakarta.transaction.Transactional;
+import jakarta.annotation.PostConstruct;
 import java.time.LocalDateTime;
-import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 @Service
 public class RequestExpirationService {
 
+  private static final Logger logger = LoggerFactory.getLogger(RequestExpirationService.class);
+
   private final RequestRepository requestRepository;
+  private final TransactionTemplate transactionTemplate;
 
   @Autowired
-  public RequestExpirationService(RequestRepository requestRepository) {
+  public RequestExpirationService(
+      RequestRepository requestRepository, PlatformTransactionManager transactionManager) {
     this.requestRepository = requestRepository;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
   }
 
   @Value("${chpay.paymentrequests.expire_every_months}")
   private long expirationTime;
 
+  @Value("${chpay.paymentrequests.expiration_batch_size:500}")
+  private int batchSize;
+
+  /** Fails on startup for a batch size that would make every run loop forever or fail. */
+  @PostConstruct
+  public void validateBatchSize() {
+    if (batchSize <= 0) {
+      throw new IllegalStateException(
+          "chpay.paymentrequests.expiration_batch_size must be positive, but is " + batchSize);
+    }
+  }
+
   /**
-   * Marks old, unfulfilled payment requests as fulfilled and persists the changes in the database.
+   * Marks old, unfulfilled payment requests as expired in the database.
    *
-   * <p>This method identifies payment requests that are older than a specified expiration period,
-   * marks them as fulfilled, and updates these requests in the database. The expiration period is
-   * defined through the configuration property `chpay.paymentrequests.expire-every-months`.
+   * <p>This method expires payment requests that are older than a specified expiration period. The
+   * expiration period is defined through the configuration property
+   * `chpay.paymentrequests.expire-every-months`. Requests are expired with one UPDATE per batch of
+   * `chpay.paymentrequests.expiration_batch_size` rows, found through a partial index on the
+   * requests that have not expired yet, and each batch commits on its own.
    *
    * <p>The process runs daily at 3:00 AM, as scheduled by the cron configuration.
+   *
+   * @return the number of requests that were expired
    */
-  @Transactional
   @Scheduled(cron = "0 0 3 * * *") // runs every day at 3 am
-  public void expireOldRequests() {
+  public int expireOldRequests() {
     LocalDateTime cutoff = LocalDateTime.now().minusMonths(expirationTime);
 
-    List<PaymentRequest> oldRequests = requestRepository.findOldRequestsForUpdate(cutoff);
-
-    for (PaymentRequest request : oldRequests) {
-      request.setExpired(true);
-    }
+    int total = 0;
+    int expired;
+    do {
+      expired =
+          transactionTemplate.execute(
+              status -> requestRepository.expireCreatedBefore(cutoff, batchSize));
+      total += expired;
+    } while (expired == batchSize);
 
-    if (!oldRequests.isEmpty()) {
-      requestRepository.saveAll(oldRequests);
+    if (total > 0) {
+      logger.info("Expired {} payment requests created before {}", total, cutoff);
     }
+    return total;
   }
 }
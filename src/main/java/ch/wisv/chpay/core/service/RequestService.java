@@ -70,7 +70,14 @@ public class RequestService {
   @PreAuthorize("hasAnyRole('USER', 'ADMIN')")
   @Transactional
   public PaymentTransaction transactionFromRequest(UUID requestId, User payer) {
-    PaymentRequest request = requestRepository.findByIdForUpdate(requestId);
+    boolean multiUse =
+        requestRepository.findMultiUseById(requestId).orElseThrow(NoSuchElementException::new);
+
+    // Multi-use requests are never used up, so their payers need not queue on the request row.
+    PaymentRequest request =
+        multiUse
+            ? requestRepository.findById(requestId).orElse(null)
+            : requestRepository.findByIdForUpdate(requestId);
 
     if (request == null) {
       throw new NoSuchElementException();
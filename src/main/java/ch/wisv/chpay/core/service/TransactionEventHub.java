@@ -0,0 +1,165 @@
+package ch.wisv.chpay.core.service;
+
+import ch.wisv.chpay.core.model.transaction.Transaction;
+import ch.wisv.chpay.core.repository.TransactionRepository;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Pushes status changes of transactions and payment requests to pages that wait for them, over
+ * Server-Sent Events. A waiting page holds an open response but no thread; events are written on
+ * virtual threads, one per subscriber, so a slow client never holds up the others.
+ *
+ * <p>A transaction channel carries a single event with the final status of the transaction, after
+ * which it is closed. A payment request channel stays open and carries an event for every payment
+ * of the request.
+ */
+@Service
+public class TransactionEventHub {
+
+  /** How long a subscription stays open; browsers reconnect by themselves after that. */
+  private static final long TIMEOUT_MILLIS = 10 * 60 * 1000;
+
+  private static final String EVENT_NAME = "status";
+
+  private final TransactionRepository transactionRepository;
+  private final Map<UUID, Set<SseEmitter>> subscribers = new ConcurrentHashMap<>();
+  private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+  @Autowired
+  public TransactionEventHub(TransactionRepository transactionRepository) {
+    this.transactionRepository = transactionRepository;
+  }
+
+  /**
+   * Subscribes to the final status of a transaction. If the transaction is no longer pending, its
+   * status is sent right away.
+   *
+   * @param transaction the transaction to wait for
+   * @return the event stream to return to the client
+   */
+  public SseEmitter subscribe(Transaction transaction) {
+    UUID transactionId = transaction.getId();
+    SseEmitter emitter = subscribe(transactionId);
+    // Read again after subscribing, rather than taken from the given entity, so a status change
+    // that commits in between is not missed.
+    transactionRepository
+        .findStatusById(transactionId)
+        .filter(status -> status != Transaction.TransactionStatus.PENDING)
+        .ifPresent(status -> publish(transactionId, status.name(), true));
+    return emitter;
+  }
+
+  /**
+   * Subscribes to the events of a transaction or payment request.
+   *
+   * @param key the id of the transaction or payment request
+   * @return the event stream to return to the client
+   */
+  public SseEmitter subscribe(UUID key) {
+    SseEmitter emitter = new SseEmitter(TIMEOUT_MILLIS);
+    subscribers.compute(
+        key,
+        (k, emitters) -> {
+          Set<SseEmitter> set = emitters != null ? emitters : ConcurrentHashMap.newKeySet();
+          set.add(emitter);
+          return set;
+        });
+
+    Runnable unsubscribe = () -> unsubscribe(key, emitter);
+    emitter.onCompletion(unsubscribe);
+    emitter.onTimeout(unsubscribe);
+    emitter.onError(e -> unsubscribe.run());
+    return emitter;
+  }
+
+  /**
+   * Publishes the final status of a transaction once the current database transaction commits,
+   * and nothing if it rolls back.
+   *
+   * @param transaction the transaction whose status changed
+   */
+  public void publishAfterCommit(Transaction transaction) {
+    UUID transactionId = transaction.getId();
+    String status = transaction.getStatus().name();
+    UUID requestId =
+        transaction.getRequest() != null ? transaction.getRequest().getRequest_id() : null;
+
+    afterCommit(
+        () -> {
+          publish(transactionId, status, true);
+          if (requestId != null) {
+            publish(requestId, status, false);
+          }
+        });
+  }
+
+  private void afterCommit(Runnable action) {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      action.run();
+      return;
+    }
+    TransactionSynchronizationManager.registerSynchronization(
+        new TransactionSynchronization() {
+          @Override
+          public void afterCommit() {
+            action.run();
+          }
+        });
+  }
+
+  /**
+   * Sends an event to every subscriber of a channel.
+   *
+   * @param key the id of the transaction or payment request
+   * @param data the event data
+   * @param last whether this is the last event of the channel, after which it is closed
+   */
+  private void publish(UUID key, String data, boolean last) {
+    Set<SseEmitter> emitters = last ? subscribers.remove(key) : subscribers.get(key);
+    if (emitters == null) {
+      return;
+    }
+    for (SseEmitter emitter : List.copyOf(emitters)) {
+      executor.execute(() -> send(emitter, data, last));
+    }
+  }
+
+  private void send(SseEmitter emitter, String data, boolean last) {
+    try {
+      emitter.send(SseEmitter.event().name(EVENT_NAME).data(data));
+      if (last) {
+        emitter.complete();
+      }
+    } catch (IOException | IllegalStateException e) {
+      // The client went away; completing the emitter unsubscribes it.
+      emitter.completeWithError(e);
+    }
+  }
+
+  private void unsubscribe(UUID key, SseEmitter emitter) {
+    subscribers.computeIfPresent(
+        key,
+        (k, emitters) -> {
+          emitters.remove(emitter);
+          return emitters.isEmpty() ? null : emitters;
+        });
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdown();
+  }
+}
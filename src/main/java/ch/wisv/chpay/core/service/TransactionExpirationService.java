@@ -1,57 +1,84 @@
 package ch.wisv.chpay.core.service;
 
-import ch.wisv.chpay.core.model.transaction.Transaction;
 import ch.wisv.chpay.core.repository.TransactionRepository;
-import jakarta.persistence.EntityManager;
-import jakarta.persistence.LockModeType;
-import jakarta.persistence.PersistenceContext;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.UUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 @Service
 public class TransactionExpirationService {
 
-  @PersistenceContext private EntityManager entityManager;
+  private static final Logger logger = LoggerFactory.getLogger(TransactionExpirationService.class);
 
   private final TransactionRepository transactionRepository;
+  private final TransactionTemplate transactionTemplate;
+  private final Counter expiredCounter;
 
-  public TransactionExpirationService(TransactionRepository transactionRepository) {
+  public TransactionExpirationService(
+      TransactionRepository transactionRepository,
+      PlatformTransactionManager transactionManager,
+      MeterRegistry meterRegistry) {
     this.transactionRepository = transactionRepository;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.expiredCounter =
+        Counter.builder("chpay.transactions.expired")
+            .description("Pending transactions failed because they were too old")
+            .register(meterRegistry);
   }
 
   @Value("${chpay.transactions.expire_every_minutes}")
   private long expireEveryMinutes;
 
+  @Value("${chpay.transactions.expiration_batch_size:500}")
+  private int batchSize;
+
+  /** Fails on startup for a batch size that would make every run loop forever or fail. */
+  @PostConstruct
+  public void validateBatchSize() {
+    if (batchSize <= 0) {
+      throw new IllegalStateException(
+          "chpay.transactions.expiration_batch_size must be positive, but is " + batchSize);
+    }
+  }
+
   /**
    * Scheduled task set to at a fixed rate, making any pending transaction older than the specified
    * expiration time fail, changing its status. chpay.transactions.expiration-fixed-rate is the rate
    * to run the task at chpay.transactions.expire-every-minutes is the age at which a transaction is
    * considered old and should be failed. Both of these can be set in the application.yml file
+   *
+   * <p>Transactions are failed with one UPDATE per batch of
+   * chpay.transactions.expiration_batch_size rows, each batch in its own database transaction, so
+   * locks are only held for one batch at a time. Rows locked by someone else are skipped until the
+   * next run.
+   *
+   * @return the number of transactions that were failed
    */
   @Scheduled(fixedRateString = "#{${chpay.transactions.expiration_fixed_rate} * 60 * 1000}")
-  @Transactional
-  public void updateTransactionStatuses() {
+  public int updateTransactionStatuses() {
     LocalDateTime cutoff = LocalDateTime.now().minusMinutes(expireEveryMinutes);
 
-    List<UUID> expiredIds =
-        transactionRepository.findExpiredTransactionIds(
-            Transaction.TransactionStatus.PENDING, cutoff);
-
-    List<Transaction> expired = new ArrayList<>();
-    for (UUID id : expiredIds) {
-      Transaction tx = entityManager.find(Transaction.class, id, LockModeType.PESSIMISTIC_WRITE);
-      tx.setStatus(Transaction.TransactionStatus.FAILED);
-      expired.add(tx);
-    }
+    int total = 0;
+    int expired;
+    do {
+      expired =
+          transactionTemplate.execute(
+              status -> transactionRepository.failPendingBefore(cutoff, batchSize));
+      total += expired;
+    } while (expired == batchSize);
 
-    if (!expired.isEmpty()) {
-      transactionRepository.saveAll(expired);
+    if (total > 0) {
+      expiredCounter.increment(total);
+      logger.info("Failed {} pending transactions created before {}", total, cutoff);
     }
+    return total;
   }
 }
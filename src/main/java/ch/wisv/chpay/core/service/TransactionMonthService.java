@@ -0,0 +1,220 @@
+package ch.wisv.chpay.core.service;
+
+import ch.wisv.chpay.config.SchemaMigrations;
+import ch.wisv.chpay.core.model.TransactionMonth;
+import ch.wisv.chpay.core.model.transaction.PaymentTransaction;
+import ch.wisv.chpay.core.model.transaction.Transaction;
+import ch.wisv.chpay.core.repository.TransactionMonthRepository;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Keeps the {@link TransactionMonth} index up to date and answers month lookups from it. New
+ * transactions are reported by {@link
+ * ch.wisv.chpay.core.model.transaction.TransactionMonthListener} and their months are marked right
+ * before the database transaction that inserted them commits. Transactions that get their user
+ * later are reported through {@link #recordUserLinked}.
+ *
+ * <p>Nearly every transaction falls in the current month, whose global row and rows of active
+ * users and requests already exist. The rows of the current month that are known to exist are
+ * remembered, so committing a payment does not write to them again.
+ */
+@Service
+public class TransactionMonthService {
+
+  private static final Logger logger = LoggerFactory.getLogger(TransactionMonthService.class);
+
+  private final TransactionMonthRepository transactionMonthRepository;
+  private final SchemaMigrations schemaMigrations;
+
+  /** The rows of {@link #markedMonth} that are known to exist, because they were committed. */
+  private final Set<TransactionMonth.Key> marked = ConcurrentHashMap.newKeySet();
+
+  private volatile LocalDate markedMonth;
+
+  @Autowired
+  public TransactionMonthService(
+      TransactionMonthRepository transactionMonthRepository, SchemaMigrations schemaMigrations) {
+    this.transactionMonthRepository = transactionMonthRepository;
+    this.schemaMigrations = schemaMigrations;
+  }
+
+  /**
+   * Gets the months with transactions in a scope.
+   *
+   * @param scope the kind of scope
+   * @param scopeId the id of the user or payment request, or {@link TransactionMonth#GLOBAL_ID}
+   * @return the months, newest first
+   */
+  @Transactional(readOnly = true)
+  public List<YearMonth> getMonths(TransactionMonth.Scope scope, UUID scopeId) {
+    return transactionMonthRepository.findMonths(scope, scopeId).stream()
+        .map(YearMonth::from)
+        .toList();
+  }
+
+  /**
+   * Gets the newest month with transactions in a scope.
+   *
+   * @param scope the kind of scope
+   * @param scopeId the id of the user or payment request, or {@link TransactionMonth#GLOBAL_ID}
+   * @return the newest month, or the current month if the scope has no transactions
+   */
+  @Transactional(readOnly = true)
+  public YearMonth getMostRecentMonth(TransactionMonth.Scope scope, UUID scopeId) {
+    return transactionMonthRepository
+        .findFirstByScopeAndScopeIdOrderByMonthDesc(scope, scopeId)
+        .map(TransactionMonth::getYearMonth)
+        .orElseGet(YearMonth::now);
+  }
+
+  /**
+   * Queues the months of a transaction that is being persisted. They are marked just before the
+   * surrounding database transaction commits, when the transaction has its timestamp, and are
+   * dropped if it rolls back.
+   *
+   * @param transaction the transaction being persisted
+   */
+  public void recordPersist(Transaction transaction) {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      logger.warn("Transaction persisted outside a database transaction, month not indexed");
+      return;
+    }
+
+    pendingMonths().transactions.add(transaction);
+  }
+
+  /**
+   * Marks the month of a transaction for the user it was linked to after it was persisted, such as
+   * an anonymous Events payment that a user paid for. The mark is made just before the current
+   * database transaction commits, or in one of its own if there is none.
+   *
+   * @param transaction the transaction that was linked to a user
+   */
+  @Transactional
+  public void recordUserLinked(Transaction transaction) {
+    LocalDate month = transaction.getTimestamp().toLocalDate().withDayOfMonth(1);
+    pendingMonths()
+        .keys
+        .add(
+            new TransactionMonth.Key(
+                TransactionMonth.Scope.USER, transaction.getUser().getId(), month));
+  }
+
+  /** Gets the months to mark in the current database transaction, registering them if needed. */
+  private PendingMonths pendingMonths() {
+    PendingMonths pending =
+        (PendingMonths) TransactionSynchronizationManager.getResource(PendingMonths.class);
+    if (pending == null) {
+      pending = new PendingMonths();
+      TransactionSynchronizationManager.bindResource(PendingMonths.class, pending);
+      TransactionSynchronizationManager.registerSynchronization(pending);
+    }
+    return pending;
+  }
+
+  /** Whether an index row is known to exist, so it does not have to be marked again. */
+  private boolean isMarked(TransactionMonth.Key key) {
+    return key.getMonth().equals(markedMonth) && marked.contains(key);
+  }
+
+  /**
+   * Remembers index rows that were committed. Only rows of the current month are kept, and the
+   * rows of the previous month are dropped once it is over, so this holds at most one month of
+   * users and requests.
+   */
+  private void remember(Set<TransactionMonth.Key> keys) {
+    LocalDate month = LocalDate.now().withDayOfMonth(1);
+    if (!month.equals(markedMonth)) {
+      synchronized (marked) {
+        if (!month.equals(markedMonth)) {
+          marked.clear();
+          markedMonth = month;
+        }
+      }
+    }
+    for (TransactionMonth.Key key : keys) {
+      if (key.getMonth().equals(month)) {
+        marked.add(key);
+      }
+    }
+  }
+
+  /**
+   * Marks the months of all transactions that were written before the month index existed. It
+   * scans every transaction, so it only runs once.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  @Transactional
+  public void backfill() {
+    schemaMigrations.runOnce(
+        "transaction_months_backfill",
+        () -> {
+          int marked = transactionMonthRepository.backfill(TransactionMonth.GLOBAL_ID);
+          logger.info("Backfilled {} transaction months", marked);
+        });
+  }
+
+  /** Gets the index rows a transaction belongs in: globally, for its user and its request. */
+  private static List<TransactionMonth.Key> keysOf(Transaction transaction) {
+    LocalDate month = transaction.getTimestamp().toLocalDate().withDayOfMonth(1);
+    List<TransactionMonth.Key> keys = new ArrayList<>(3);
+    keys.add(
+        new TransactionMonth.Key(TransactionMonth.Scope.GLOBAL, TransactionMonth.GLOBAL_ID, month));
+    if (transaction.getUser() != null) {
+      keys.add(
+          new TransactionMonth.Key(
+              TransactionMonth.Scope.USER, transaction.getUser().getId(), month));
+    }
+    if (transaction instanceof PaymentTransaction payment && payment.getRequest() != null) {
+      keys.add(
+          new TransactionMonth.Key(
+              TransactionMonth.Scope.REQUEST, payment.getRequest().getRequest_id(), month));
+    }
+    return keys;
+  }
+
+  /** The transactions persisted and the rows marked in the current database transaction. */
+  private class PendingMonths implements TransactionSynchronization {
+
+    private final List<Transaction> transactions = new ArrayList<>();
+    private final Set<TransactionMonth.Key> keys = new LinkedHashSet<>();
+
+    @Override
+    public void beforeCommit(boolean readOnly) {
+      for (Transaction transaction : transactions) {
+        keys.addAll(keysOf(transaction));
+      }
+      keys.removeIf(TransactionMonthService.this::isMarked);
+      for (TransactionMonth.Key key : keys) {
+        transactionMonthRepository.markActive(
+            key.getScope().name(), key.getScopeId(), key.getMonth());
+      }
+    }
+
+    @Override
+    public void afterCommit() {
+      remember(keys);
+    }
+
+    @Override
+    public void afterCompletion(int status) {
+      TransactionSynchronizationManager.unbindResourceIfPossible(PendingMonths.class);
+    }
+  }
+}
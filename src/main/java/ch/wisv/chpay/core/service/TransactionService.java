@@ -1,23 +1,32 @@
 package ch.wisv.chpay.core.service;
 
 import ch.wisv.chpay.core.aop.CheckSystemNotFrozen;
+import ch.wisv.chpay.core.dto.PaginationInfo;
+import ch.wisv.chpay.core.dto.TransactionCursor;
+import ch.wisv.chpay.core.dto.TransactionHistoryItem;
+import ch.wisv.chpay.core.dto.TransactionHistoryPage;
 import ch.wisv.chpay.core.exception.IllegalRefundException;
 import ch.wisv.chpay.core.exception.InsufficientBalanceException;
 import ch.wisv.chpay.core.exception.UserNotFoundException;
 import ch.wisv.chpay.core.model.PaymentRequest;
+import ch.wisv.chpay.core.model.RequestFulfilmentStripe;
 import ch.wisv.chpay.core.model.User;
 import ch.wisv.chpay.core.model.transaction.*;
+import ch.wisv.chpay.core.repository.LikePatterns;
+import ch.wisv.chpay.core.repository.RequestFulfilmentStripeRepository;
 import ch.wisv.chpay.core.repository.RequestRepository;
 import ch.wisv.chpay.core.repository.TransactionRepository;
 import jakarta.persistence.LockTimeoutException;
 import java.math.BigDecimal;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
 import org.hibernate.dialect.lock.PessimisticEntityLockException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.retry.annotation.Backoff;
 import org.springframework.retry.annotation.Recover;
 import org.springframework.retry.annotation.Retryable;
@@ -30,16 +39,22 @@ public class TransactionService {
   private final TransactionRepository transactionRepository;
   private final BalanceService balanceService;
   private final RequestRepository requestRepository;
+  private final RequestFulfilmentStripeRepository fulfilmentStripeRepository;
+  private final WebhookOutboxService webhookOutboxService;
   private static final Logger logger = LoggerFactory.getLogger(TransactionService.class);
 
   @Autowired
   TransactionService(
       TransactionRepository transactionRepository,
       BalanceService balanceService,
-      RequestRepository requestRepository) {
+      RequestRepository requestRepository,
+      RequestFulfilmentStripeRepository fulfilmentStripeRepository,
+      WebhookOutboxService webhookOutboxService) {
     this.transactionRepository = transactionRepository;
     this.balanceService = balanceService;
     this.requestRepository = requestRepository;
+    this.fulfilmentStripeRepository = fulfilmentStripeRepository;
+    this.webhookOutboxService = webhookOutboxService;
   }
 
   /**
@@ -215,7 +230,12 @@ public class TransactionService {
 
     Transaction result = balanceService.pay(user, lockedTransaction);
 
-    if (request != null) {
+    if (request != null && request.isMultiUse()) {
+      fulfilmentStripeRepository.increment(
+          request.getRequest_id(),
+          ThreadLocalRandom.current().nextInt(RequestFulfilmentStripe.STRIPES),
+          1);
+    } else if (request != null) {
       request.addFulfilment();
       requestRepository.save(request);
     }
@@ -227,7 +247,8 @@ public class TransactionService {
    * Attempts to fulfill an externally initiated transaction. On a lock failure the transaction is
    * set to {@code FAILED}. This is only needed for events, so the user can be redirected back and
    * shown an error page there. Like internal transactions, this method is retryable on locking
-   * issues, but not on balance insufficiency.
+   * issues, but not on balance insufficiency. The CH Events webhook is queued in the same database
+   * transaction as the payment.
    *
    * @param transactionId the ID of the transaction to fulfill
    * @param user the user executing the transaction
@@ -264,7 +285,9 @@ public class TransactionService {
       throw new IllegalStateException("Transaction is not in pending state");
     }
 
-    return balanceService.pay(user, lockedTransaction);
+    Transaction paid = balanceService.pay(user, lockedTransaction);
+    webhookOutboxService.enqueue(lockedTransaction);
+    return paid;
   }
 
   @Recover
@@ -359,6 +382,59 @@ public class TransactionService {
     return transactionRepository.findByUser(user);
   }
 
+  /**
+   * Gets one page of a user's transaction history, newest first. Pages are addressed by the cursor
+   * of the previous page instead of an offset, so each page is a single index range read. The
+   * filters are applied in the query, so they cover the whole history and not just the pages a
+   * client has loaded so far.
+   *
+   * @param user the user to get the history of
+   * @param cursor the cursor returned with the previous page, or null for the first page
+   * @param size the maximum number of transactions on the page
+   * @param query text the description must contain, or null for any description
+   * @param type the type of the transactions, or null for any type
+   * @param status the status of the transactions, or null for any status
+   * @return the page, with the cursor of the next page if there is one
+   * @throws IllegalArgumentException if the cursor is malformed
+   */
+  @Transactional(readOnly = true)
+  public TransactionHistoryPage getTransactionHistory(
+      User user,
+      String cursor,
+      int size,
+      String query,
+      Transaction.TransactionType type,
+      Transaction.TransactionStatus status)
+      throws IllegalArgumentException {
+    if (size <= 0) {
+      throw new IllegalArgumentException("Page size must be positive");
+    }
+
+    String pattern = LikePatterns.containing(query);
+
+    // Fetch one extra row to find out whether there is a next page.
+    PageRequest limit = PageRequest.of(0, size + 1);
+    List<TransactionHistoryItem> items;
+    if (cursor == null) {
+      items =
+          transactionRepository.findHistoryForUser(user.getId(), pattern, type, status, limit);
+    } else {
+      TransactionCursor after = TransactionCursor.decode(cursor);
+      items =
+          transactionRepository.findHistoryForUserBefore(
+              user.getId(), after.getTimestamp(), after.getId(), pattern, type, status, limit);
+    }
+
+    String nextCursor = null;
+    if (items.size() > size) {
+      items = items.subList(0, size);
+      nextCursor = TransactionCursor.of(items.get(size - 1)).encode();
+    }
+
+    return new TransactionHistoryPage(
+        items, PaginationInfo.buildCursorPaginationInfo(size, cursor != null, nextCursor));
+  }
+
   /**
    * Gets a transaction by its id.
    *
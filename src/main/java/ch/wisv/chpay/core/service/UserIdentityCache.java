@@ -0,0 +1,59 @@
+package ch.wisv.chpay.core.service;
+
+import ch.wisv.chpay.config.CacheConfig;
+import ch.wisv.chpay.core.model.User;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Evicts entries of the identity caches filled by {@link
+ * ch.wisv.chpay.core.repository.UserRepository#findIdByRfid} and {@link
+ * ch.wisv.chpay.core.repository.UserRepository#findIdByOpenID}. Inside a transaction the entries
+ * are evicted once it commits, so a concurrent lookup cannot cache the old mapping again.
+ */
+@Component
+public class UserIdentityCache {
+
+  private final CacheManager cacheManager;
+
+  @Autowired
+  public UserIdentityCache(CacheManager cacheManager) {
+    this.cacheManager = cacheManager;
+  }
+
+  /** Evicts the cached RFID and OpenID mappings of a user. */
+  public void evict(User user) {
+    evictRfid(user.getRfid());
+    evictOpenId(user.getOpenID());
+  }
+
+  public void evictRfid(String rfid) {
+    evict(CacheConfig.USER_ID_BY_RFID, rfid);
+  }
+
+  public void evictOpenId(String openId) {
+    evict(CacheConfig.USER_ID_BY_OPEN_ID, openId);
+  }
+
+  private void evict(String cacheName, String key) {
+    Cache cache = cacheManager.getCache(cacheName);
+    if (cache == null || key == null) {
+      return;
+    }
+
+    cache.evict(key);
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+              cache.evict(key);
+            }
+          });
+    }
+  }
+}
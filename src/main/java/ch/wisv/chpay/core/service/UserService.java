@@ -1,11 +1,13 @@
 package ch.wisv.chpay.core.service;
 
 import ch.wisv.chpay.core.model.User;
+import ch.wisv.chpay.core.repository.LikePatterns;
 import ch.wisv.chpay.core.repository.UserRepository;
-import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.UUID;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -13,10 +15,12 @@ import org.springframework.transaction.annotation.Transactional;
 @Service
 public class UserService {
   private final UserRepository userRepository;
+  private final UserIdentityCache userIdentityCache;
 
   @Autowired
-  public UserService(UserRepository userRepository) {
+  public UserService(UserRepository userRepository, UserIdentityCache userIdentityCache) {
     this.userRepository = userRepository;
+    this.userIdentityCache = userIdentityCache;
   }
 
   @Transactional(readOnly = true)
@@ -26,15 +30,19 @@ public class UserService {
   }
 
   /**
-   * Retrieves all users from the database, paginated based on the provided page and size
-   * parameters. This method is restricted to users with the ADMIN role.
+   * Gets a page of users, optionally only those whose name, email or RFID contains the query.
    *
-   * @return a list of users for the requested page and size.
+   * @param query the text to search for, case-insensitively, or null or blank for all users
+   * @param pageable the page and sort order to get
+   * @return the page of users
    */
   @Transactional(readOnly = true)
   @PreAuthorize("hasRole('ADMIN')")
-  public List<User> getAllUsers() {
-    return userRepository.findAll();
+  public Page<User> searchUsers(String query, Pageable pageable) {
+    if (query == null || query.isBlank()) {
+      return userRepository.findAll(pageable);
+    }
+    return userRepository.search(LikePatterns.containing(query), pageable);
   }
 
   /**
@@ -57,6 +65,7 @@ public class UserService {
   @PreAuthorize("hasRole('ADMIN')")
   public void saveAndFlush(User user) {
     userRepository.saveAndFlush(user);
+    userIdentityCache.evict(user);
   }
 
   @Transactional
@@ -85,6 +94,8 @@ public class UserService {
         userRepository
             .findByOpenID(openId)
             .orElseThrow(() -> new NoSuchElementException("No user found for OpenID: " + openId));
+    userIdentityCache.evictRfid(user.getRfid());
+    userIdentityCache.evictRfid(newRfid);
     user.setRfid(newRfid);
     userRepository.save(user);
   }
@@ -101,6 +112,7 @@ public class UserService {
         userRepository
             .findByOpenID(openId)
             .orElseThrow(() -> new NoSuchElementException("User not found: " + openId));
+    userIdentityCache.evictRfid(user.getRfid());
     user.setRfid(null);
     userRepository.save(user);
   }
@@ -0,0 +1,56 @@
+package ch.wisv.chpay.core.service;
+
+import ch.wisv.chpay.core.model.PendingWebhook;
+import ch.wisv.chpay.core.model.transaction.ExternalTransaction;
+import ch.wisv.chpay.core.repository.PendingWebhookRepository;
+import java.time.Instant;
+import java.util.UUID;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Outbox for the webhooks that tell CH Events about the outcome of an external payment. A webhook
+ * is stored in the same database transaction that settles the payment, so it is sent exactly when
+ * the payment commits, and delivered afterwards by the webhook delivery worker.
+ */
+@Service
+public class WebhookOutboxService {
+
+  /** Published when a webhook was queued; listeners that wait for the commit can deliver it. */
+  public record WebhookQueued(UUID webhookId) {}
+
+  private final PendingWebhookRepository webhookRepo;
+  private final ApplicationEventPublisher eventPublisher;
+
+  @Autowired
+  public WebhookOutboxService(
+      PendingWebhookRepository webhookRepo, ApplicationEventPublisher eventPublisher) {
+    this.webhookRepo = webhookRepo;
+    this.eventPublisher = eventPublisher;
+  }
+
+  /**
+   * Queues the webhook of an external transaction for immediate delivery. When called inside a
+   * transaction the webhook only becomes visible, and is only delivered, once that transaction
+   * commits.
+   *
+   * @param etx the external transaction to notify CH Events about
+   */
+  @Transactional
+  public void enqueue(ExternalTransaction etx) {
+    Instant now = Instant.now();
+
+    PendingWebhook pending = new PendingWebhook();
+    pending.setWebhookUrl(etx.getWebhookUrl());
+    pending.setPayload("id=" + etx.getId());
+    pending.setRetryCount(0);
+    pending.setStatus(PendingWebhook.Status.PENDING);
+    pending.setNextAttempt(now);
+    pending.setCreatedAt(now);
+    webhookRepo.save(pending);
+
+    eventPublisher.publishEvent(new WebhookQueued(pending.getId()));
+  }
+}
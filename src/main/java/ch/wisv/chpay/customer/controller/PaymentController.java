@@ -1,6 +1,7 @@
 package ch.wisv.chpay.customer.controller;
 
 import ch.wisv.chpay.api.external_payment.service.ExternalPaymentServiceImpl;
+import ch.wisv.chpay.core.controller.CurrentUser;
 import ch.wisv.chpay.core.controller.PageController;
 import ch.wisv.chpay.core.exception.TransactionAlreadyFulfilled;
 import ch.wisv.chpay.core.model.PaymentRequest;
@@ -11,10 +12,14 @@ import ch.wisv.chpay.core.model.transaction.Transaction;
 import ch.wisv.chpay.core.repository.TransactionRepository;
 import ch.wisv.chpay.core.service.NotificationService;
 import ch.wisv.chpay.core.service.RequestService;
+import ch.wisv.chpay.core.service.TransactionEventHub;
+import ch.wisv.chpay.core.service.TransactionMonthService;
 import ch.wisv.chpay.core.service.TransactionService;
+import ch.wisv.chpay.core.service.WebhookOutboxService;
 import java.util.NoSuchElementException;
 import java.util.UUID;
 import javassist.NotFoundException;
+import org.springframework.http.MediaType;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -22,7 +27,8 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
-import org.springframework.web.client.RestClientException;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
 @Controller
@@ -37,19 +43,31 @@ public class PaymentController extends PageController {
   private final NotificationService notificationService;
   private final TransactionRepository transactionRepository;
   private final ExternalPaymentServiceImpl externalPaymentServiceImpl;
+  private final WebhookOutboxService webhookOutboxService;
+  private final TransactionEventHub transactionEventHub;
+  private final TransactionMonthService transactionMonthService;
+  private final CurrentUser currentUser;
 
   protected PaymentController(
       RequestService requestService,
       TransactionService transactionService,
       NotificationService notificationService,
       TransactionRepository transactionRepository,
-      ExternalPaymentServiceImpl externalPaymentServiceImpl) {
+      ExternalPaymentServiceImpl externalPaymentServiceImpl,
+      WebhookOutboxService webhookOutboxService,
+      TransactionEventHub transactionEventHub,
+      TransactionMonthService transactionMonthService,
+      CurrentUser currentUser) {
     super();
     this.requestService = requestService;
     this.transactionService = transactionService;
     this.notificationService = notificationService;
     this.transactionRepository = transactionRepository;
     this.externalPaymentServiceImpl = externalPaymentServiceImpl;
+    this.webhookOutboxService = webhookOutboxService;
+    this.transactionEventHub = transactionEventHub;
+    this.transactionMonthService = transactionMonthService;
+    this.currentUser = currentUser;
   }
 
   /**
@@ -79,7 +97,7 @@ public class PaymentController extends PageController {
       throw new IllegalStateException("Request is already fulfilled!");
     }
 
-    User user = (User) model.getAttribute("currentUser");
+    User user = currentUser.get();
     PaymentTransaction tx = requestService.transactionFromRequest(UUID.fromString(key), user);
 
     model.addAttribute(MODEL_ATTR_TX, tx);
@@ -134,8 +152,7 @@ public class PaymentController extends PageController {
       return "redirect:/payment/externalcomplete/" + transaction.getId();
     }
 
-    transactionService.fullfillTransaction(
-        transaction.getId(), (User) model.getAttribute("currentUser"));
+    transactionService.fullfillTransaction(transaction.getId(), currentUser.get());
 
     notificationService.addSuccessMessage(redirectAttributes, "Authorized Transaction");
     return "redirect:/payment/complete/" + tx;
@@ -165,22 +182,36 @@ public class PaymentController extends PageController {
     };
   }
 
+  /**
+   * Streams the final status of a transaction to its pending page, which reloads when it arrives.
+   *
+   * @param key transaction's id
+   * @return an event stream carrying the status once the transaction is no longer pending
+   */
+  @PreAuthorize("hasAnyRole('USER', 'BANNED')")
+  @GetMapping(value = "/complete/{key}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  @ResponseBody
+  public SseEmitter paymentEvents(@PathVariable String key) throws NotFoundException {
+    Transaction t =
+        transactionRepository
+            .findById(UUID.fromString(key))
+            .orElseThrow(() -> new NotFoundException(key));
+    return transactionEventHub.subscribe(t);
+  }
+
   /**
    * Processes an external transaction, coming from events by fulfilling it and redirecting the user
-   * back to the events payment complete page, by calling {@code
-   * externalPaymentServiceImpl.postToWebhook()}. Errors during the processing lead to a redirect to
-   * the fallback URL, currently the error page.
+   * back to the events payment complete page. CH Events is told about the outcome through a webhook
+   * that is queued with the payment and delivered in the background, so the user does not wait for
+   * Events to respond.
    *
    * @param id The id of the external transaction to process.
    * @param model the model holding attributes for the current HTTP session
    * @return A redirect string to the events payment complete page.
-   * @throws RestClientException If an error occurs while calling {@code
-   *     externalPaymentServiceImpl.postToWebhook()}.
    */
   @PreAuthorize("hasRole('USER') and !hasRole('BANNED')")
   @GetMapping("/externalcomplete/{id}")
-  public String completeExternalTransaction(@PathVariable String id, Model model)
-      throws RestClientException {
+  public String completeExternalTransaction(@PathVariable String id, Model model) {
     ExternalTransaction transaction =
         (ExternalTransaction)
             transactionRepository
@@ -191,16 +222,22 @@ public class PaymentController extends PageController {
       return "redirect:" + transaction.getFallbackUrl(); // already paid, just redirect to events.
     }
 
-    User currentUser = (User) model.getAttribute("currentUser");
-
     // If transaction doesn't have a user (anonymous), link the current user to it
     if (transaction.getUser() == null) {
-      transaction.linkUser(currentUser);
+      transaction.linkUser(currentUser.get());
       transactionRepository.save(transaction);
+      transactionMonthService.recordUserLinked(transaction);
     }
 
-    transactionService.fullfillExternalTransaction(transaction.getId(), transaction.getUser());
+    Transaction result =
+        transactionService.fullfillExternalTransaction(transaction.getId(), transaction.getUser());
+
+    // A payment that failed on locking is marked as failed outside of the payment transaction, so
+    // its webhook has not been queued yet.
+    if (result.getStatus() != Transaction.TransactionStatus.SUCCESSFUL) {
+      webhookOutboxService.enqueue(transaction);
+    }
 
-    return externalPaymentServiceImpl.postToWebhook(id, transaction);
+    return externalPaymentServiceImpl.redirectAfterPayment(transaction);
   }
 }
@@ -2,26 +2,31 @@ package ch.wisv.chpay.customer.controller;
 
 import static ch.wisv.chpay.core.model.transaction.TopupTransaction.createTopUpTransaction;
 
+import ch.wisv.chpay.core.controller.CurrentUser;
 import ch.wisv.chpay.core.model.User;
 import ch.wisv.chpay.core.model.transaction.TopupTransaction;
 import ch.wisv.chpay.core.model.transaction.Transaction;
 import ch.wisv.chpay.core.repository.TransactionRepository;
 import ch.wisv.chpay.core.service.NotificationService;
 import ch.wisv.chpay.core.service.SettingService;
+import ch.wisv.chpay.core.service.TransactionEventHub;
 import ch.wisv.chpay.core.service.TransactionService;
 import ch.wisv.chpay.core.service.UserService;
 import ch.wisv.chpay.customer.service.DepositService;
 import java.math.BigDecimal;
+import java.util.Optional;
 import java.util.UUID;
 import javassist.NotFoundException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
 @Controller
@@ -33,6 +38,8 @@ public class TopUpController extends CustomerController {
   private final TransactionRepository transactionRepository;
   private final SettingService settingService;
   private final UserService userService;
+  private final TransactionEventHub transactionEventHub;
+  private final CurrentUser currentUser;
 
   @Value("${mollie.transaction_fee}")
   private String transactionFee;
@@ -44,13 +51,17 @@ public class TopUpController extends CustomerController {
       NotificationService notificationService,
       TransactionRepository transactionRepository,
       SettingService settingService,
-      UserService userService) {
+      UserService userService,
+      TransactionEventHub transactionEventHub,
+      CurrentUser currentUser) {
     this.depositService = depositService;
     this.transactionsService = transactionsService;
     this.notificationService = notificationService;
     this.transactionRepository = transactionRepository;
     this.settingService = settingService;
     this.userService = userService;
+    this.transactionEventHub = transactionEventHub;
+    this.currentUser = currentUser;
   }
 
   /**
@@ -60,16 +71,13 @@ public class TopUpController extends CustomerController {
    */
   @PreAuthorize("hasAnyRole('USER', 'BANNED')")
   @GetMapping
-  public String showBalancePage(
-      @ModelAttribute("currentUser") User currentUser,
-      @RequestParam(required = false) String redirect,
-      Model model) {
+  public String showBalancePage(@RequestParam(required = false) String redirect, Model model) {
     // add the signature of the current page to thymeleaf context
     model.addAttribute(MODEL_ATTR_URL_PAGE, "topup");
     model.addAttribute(MODEL_ATTR_MAX_BALANCE, settingService.getMaxBalance());
     model.addAttribute(MODEL_ATTR_MIN_TOP_UP, settingService.getMinTopUp());
     model.addAttribute(MODEL_ATTR_TRANSACTION_FEE, transactionFee);
-    userService.setRecentPayment(currentUser, redirect);
+    userService.setRecentPayment(currentUser.get(), redirect);
     return "topup";
   }
 
@@ -77,17 +85,15 @@ public class TopUpController extends CustomerController {
    * Redirects the user to the payment page
    *
    * @param topupAmount the amount they want to add to their account
-   * @param currentUser the user
    * @param redirectAttributes redirect attributes
    * @return the url for the payment
    */
   @PreAuthorize("hasRole('USER') and !hasRole('BANNED')")
   @PostMapping
   public String handleTopup(
-      @RequestParam("topupAmount") String topupAmount,
-      @ModelAttribute("currentUser") User currentUser,
-      RedirectAttributes redirectAttributes) {
+      @RequestParam("topupAmount") String topupAmount, RedirectAttributes redirectAttributes) {
     try {
+      User user = currentUser.get();
       BigDecimal amount;
       try {
         amount = new BigDecimal(topupAmount);
@@ -99,12 +105,12 @@ public class TopUpController extends CustomerController {
 
       if (amount.compareTo(BigDecimal.ZERO) <= 0) {
         notificationService.addErrorMessage(redirectAttributes, "Top-up amount must be positive.");
-      } else if (amount.add(currentUser.getBalance()).compareTo(maxBalance) > 0) {
+      } else if (amount.add(user.getBalance()).compareTo(maxBalance) > 0) {
         notificationService.addErrorMessage(
             redirectAttributes, "Top-up amount must be less than " + maxBalance);
       } else {
         TopupTransaction transaction =
-            createTopUpTransaction(currentUser, amount, "Mollie Deposit");
+            createTopUpTransaction(user, amount, "Mollie Deposit");
         transactionRepository.save(transaction);
 
         String url = depositService.getMollieUrl(transaction);
@@ -132,15 +138,15 @@ public class TopUpController extends CustomerController {
   @PreAuthorize("hasAnyRole('USER', 'BANNED')")
   @GetMapping("/complete/{key}")
   public String depositSuccess(
-      @PathVariable String key, @ModelAttribute("currentUser") User currentUser, Model model)
-      throws NotFoundException {
+      @PathVariable String key, Model model) throws NotFoundException {
     Transaction t =
         transactionRepository
             .findById(UUID.fromString(key))
             .orElseThrow(() -> new NotFoundException(key));
     model.addAttribute(MODEL_ATTR_TRANSACTION_ID, key);
-    if (currentUser.getRecentPayment() != null) {
-      model.addAttribute("redirect", currentUser.getRecentPayment());
+    String recentPayment = currentUser.get().getRecentPayment();
+    if (recentPayment != null) {
+      model.addAttribute("redirect", recentPayment);
     }
     return switch (t.getStatus()) {
       case Transaction.TransactionStatus.PENDING -> "pending";
@@ -150,6 +156,23 @@ public class TopUpController extends CustomerController {
     };
   }
 
+  /**
+   * Streams the final status of a transaction to its pending page, which reloads when it arrives.
+   *
+   * @param key transaction's id
+   * @return an event stream carrying the status once the transaction is no longer pending
+   */
+  @PreAuthorize("hasAnyRole('USER', 'BANNED')")
+  @GetMapping(value = "/complete/{key}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  @ResponseBody
+  public SseEmitter depositEvents(@PathVariable String key) throws NotFoundException {
+    Transaction t =
+        transactionRepository
+            .findById(UUID.fromString(key))
+            .orElseThrow(() -> new NotFoundException(key));
+    return transactionEventHub.subscribe(t);
+  }
+
   /**
    * This is where the mollie webhook goes
    *
@@ -158,10 +181,9 @@ public class TopUpController extends CustomerController {
    */
   @PostMapping("/status")
   public ResponseEntity<HttpStatus> depositStatus(@RequestParam(name = "id") String mollieId) {
-    if (transactionsService.getTransaction(mollieId).isEmpty())
-      return new ResponseEntity<>(HttpStatus.NOT_FOUND);
-    TopupTransaction t = transactionsService.getTransaction(mollieId).get();
-    depositService.validateTransaction(t.getId());
+    Optional<TopupTransaction> t = transactionsService.getTransaction(mollieId);
+    if (t.isEmpty()) return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+    depositService.validateTransaction(t.get());
     return new ResponseEntity<>(HttpStatus.OK);
   }
 }
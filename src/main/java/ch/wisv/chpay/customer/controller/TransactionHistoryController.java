@@ -1,10 +1,13 @@
 package ch.wisv.chpay.customer.controller;
 
+import ch.wisv.chpay.core.controller.CurrentUser;
+import ch.wisv.chpay.core.dto.TransactionHistoryPage;
 import ch.wisv.chpay.core.model.User;
 import ch.wisv.chpay.core.model.transaction.Transaction;
 import ch.wisv.chpay.core.service.TransactionService;
 import ch.wisv.chpay.customer.service.MailService;
-import java.util.List;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.util.Optional;
 import java.util.UUID;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -20,30 +23,42 @@ import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 
 @Controller
 public class TransactionHistoryController extends CustomerController {
 
+  /** Number of transactions per page of the history. */
+  private static final int HISTORY_PAGE_SIZE = 50;
+
+  /** Largest page of the history a client may ask for. */
+  private static final int HISTORY_MAX_PAGE_SIZE = 200;
+
   private final TransactionService transactionService;
   private final ch.wisv.chpay.core.service.OfxExportService ofxExportService;
   private final ch.wisv.chpay.core.service.CsvExportService csvExportService;
   private final MailService mailService;
+  private final CurrentUser currentUser;
 
   @Autowired
   protected TransactionHistoryController(
       TransactionService transactionService,
       MailService mailService,
       ch.wisv.chpay.core.service.OfxExportService ofxExportService,
-      ch.wisv.chpay.core.service.CsvExportService csvExportService) {
+      ch.wisv.chpay.core.service.CsvExportService csvExportService,
+      CurrentUser currentUser) {
     super();
     this.transactionService = transactionService;
     this.mailService = mailService;
     this.ofxExportService = ofxExportService;
     this.csvExportService = csvExportService;
+    this.currentUser = currentUser;
   }
 
   /**
-   * Gets the simplified transactions page showing only essential transaction information.
+   * Gets the simplified transactions page showing only essential transaction information. Only
+   * the first page of the history is rendered; the page loads the rest from {@link
+   * #getTransactionHistory} while scrolling.
    *
    * @param model of type Model
    * @return String
@@ -51,68 +66,65 @@ public class TransactionHistoryController extends CustomerController {
   @PreAuthorize("hasAnyRole('USER', 'BANNED')")
   @GetMapping(value = "/transactions")
   public String getSimplifiedTransactionsPage(Model model) {
-    User currentUser = (User) model.getAttribute("currentUser");
-
-    // Get all transactions for the user
-    List<ch.wisv.chpay.core.model.transaction.Transaction> transactions =
-        transactionService.getTransactionsForUser(currentUser);
-
-    // Sort transactions by date in descending order (most recent first)
-    transactions.sort((t1, t2) -> t2.getTimestamp().compareTo(t1.getTimestamp()));
+    TransactionHistoryPage page =
+        transactionService.getTransactionHistory(
+            currentUser.get(), null, HISTORY_PAGE_SIZE, null, null, null);
 
-    model.addAttribute(MODEL_ATTR_TRANSACTIONS, transactions);
+    model.addAttribute(MODEL_ATTR_TRANSACTIONS, page.getItems());
+    model.addAttribute(MODEL_ATTR_INFO, page.getPagination());
     model.addAttribute(MODEL_ATTR_URL_PAGE, "transactions");
     return "transactions";
   }
 
-  /** Export all of the current user's transactions as an OFX file. */
+  /**
+   * Gets a page of the current user's transaction history as JSON, newest first, optionally
+   * filtered by description, type and status.
+   *
+   * @param cursor the nextCursor of the previous page, or absent for the first page
+   * @param size the number of transactions per page
+   * @param q text the description must contain, if any
+   * @param type the type of the transactions, if any
+   * @param status the status of the transactions, if any
+   * @return the page with its pagination info, or 400 if the cursor or size is invalid
+   */
+  @PreAuthorize("hasAnyRole('USER', 'BANNED')")
+  @GetMapping(value = "/transactions/history", produces = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<TransactionHistoryPage> getTransactionHistory(
+      @RequestParam(required = false) String cursor,
+      @RequestParam(defaultValue = "" + HISTORY_PAGE_SIZE) int size,
+      @RequestParam(required = false) String q,
+      @RequestParam(required = false) Transaction.TransactionType type,
+      @RequestParam(required = false) Transaction.TransactionStatus status) {
+    if (size <= 0 || size > HISTORY_MAX_PAGE_SIZE) {
+      return ResponseEntity.badRequest().build();
+    }
+    try {
+      return ResponseEntity.ok(
+          transactionService.getTransactionHistory(
+              currentUser.get(), cursor, size, q, type, status));
+    } catch (IllegalArgumentException e) {
+      return ResponseEntity.badRequest().build();
+    }
+  }
+
+  /** Export all of the current user's transactions as an OFX file, streamed to the response. */
   @PreAuthorize("hasAnyRole('USER', 'BANNED')")
   @GetMapping(value = "/transactions/export/ofx")
-  public ResponseEntity<byte[]> exportTransactionsOfx(Model model) {
-    User currentUser = (User) model.getAttribute("currentUser");
-    List<Transaction> transactions =
-        new java.util.ArrayList<>(
-            transactionService.getTransactionsForUser(currentUser).stream()
-                .filter(
-                    t ->
-                        t.getStatus() == Transaction.TransactionStatus.SUCCESSFUL
-                            || t.getStatus() == Transaction.TransactionStatus.PARTIALLY_REFUNDED
-                            || t.getStatus() == Transaction.TransactionStatus.REFUNDED)
-                .toList());
-    transactions.sort((t1, t2) -> t2.getTimestamp().compareTo(t1.getTimestamp()));
-
-    byte[] ofxBytes = ofxExportService.generateOfx(currentUser, transactions);
-
-    HttpHeaders headers = new HttpHeaders();
-    headers.setContentType(new MediaType("application", "x-ofx"));
-    headers.set(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=transactions.ofx");
-    headers.setContentLength(ofxBytes.length);
-    return new ResponseEntity<>(ofxBytes, headers, HttpStatus.OK);
+  public void exportTransactionsOfx(HttpServletResponse response) throws IOException {
+    User user = currentUser.get();
+    response.setContentType("application/x-ofx");
+    response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=transactions.ofx");
+    ofxExportService.writeOfx(user, response.getOutputStream());
   }
 
-  /** Export all of the current user's transactions as a CSV file. */
+  /** Export all of the current user's transactions as a CSV file, streamed to the response. */
   @PreAuthorize("hasAnyRole('USER', 'BANNED')")
   @GetMapping(value = "/transactions/export/csv")
-  public ResponseEntity<byte[]> exportTransactionsCsv(Model model) {
-    User currentUser = (User) model.getAttribute("currentUser");
-    List<Transaction> transactions =
-        new java.util.ArrayList<>(
-            transactionService.getTransactionsForUser(currentUser).stream()
-                .filter(
-                    t ->
-                        t.getStatus() == Transaction.TransactionStatus.SUCCESSFUL
-                            || t.getStatus() == Transaction.TransactionStatus.PARTIALLY_REFUNDED
-                            || t.getStatus() == Transaction.TransactionStatus.REFUNDED)
-                .toList());
-    transactions.sort((t1, t2) -> t2.getTimestamp().compareTo(t1.getTimestamp()));
-
-    byte[] csvBytes = csvExportService.generateCsv(transactions);
-
-    HttpHeaders headers = new HttpHeaders();
-    headers.set(HttpHeaders.CONTENT_TYPE, "text/csv");
-    headers.set(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=transactions.csv");
-    headers.setContentLength(csvBytes.length);
-    return new ResponseEntity<>(csvBytes, headers, HttpStatus.OK);
+  public void exportTransactionsCsv(HttpServletResponse response) throws IOException {
+    User user = currentUser.get();
+    response.setContentType("text/csv");
+    response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=transactions.csv");
+    csvExportService.writeUserCsv(user.getId(), response.getOutputStream());
   }
 
   /**
@@ -127,8 +139,8 @@ public class TransactionHistoryController extends CustomerController {
   public ResponseEntity<HttpStatus> emailReceipt(@PathVariable String id, Model model) {
     try {
       // Get current user from model
-      User currentUser = (User) model.getAttribute("currentUser");
-      if (currentUser == null) {
+      User user = currentUser.getUser().orElse(null);
+      if (user == null) {
         return new ResponseEntity<>(HttpStatus.UNAUTHORIZED);
       }
 
@@ -148,7 +160,7 @@ public class TransactionHistoryController extends CustomerController {
       Transaction transaction = transactionOpt.get();
 
       // Check if user owns the transaction or is admin
-      if (!isAdmin && !transaction.getUser().getId().equals(currentUser.getId())) {
+      if (!isAdmin && !transaction.getUser().getId().equals(user.getId())) {
         return new ResponseEntity<>(HttpStatus.FORBIDDEN);
       }
 
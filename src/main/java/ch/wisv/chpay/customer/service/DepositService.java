@@ -6,6 +6,7 @@ import be.woutschoovaerts.mollie.data.common.AddressRequest;
 import be.woutschoovaerts.mollie.data.common.Amount;
 import be.woutschoovaerts.mollie.data.payment.PaymentRequest;
 import be.woutschoovaerts.mollie.data.payment.PaymentResponse;
+import be.woutschoovaerts.mollie.data.payment.PaymentStatus;
 import be.woutschoovaerts.mollie.exception.MollieException;
 import ch.wisv.chpay.core.aop.CheckSystemNotFrozen;
 import ch.wisv.chpay.core.model.User;
@@ -26,6 +27,8 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 @Service
 public class DepositService {
@@ -47,6 +50,8 @@ public class DepositService {
 
   private final MailService mailService;
 
+  private final TransactionTemplate transactionTemplate;
+
   private static final Logger logger = LoggerFactory.getLogger(DepositService.class);
 
   @Autowired
@@ -55,12 +60,14 @@ public class DepositService {
       UserRepository userRepository,
       @Value("${mollie.api_key}") String apiKey,
       TransactionRepository transactionRepository,
-      MailService mailService) {
+      MailService mailService,
+      PlatformTransactionManager transactionManager) {
     this.balanceService = balanceService;
     this.userRepository = userRepository;
     this.mollieClient = new ClientBuilder().withApiKey(apiKey).build();
     this.transactionRepository = transactionRepository;
     this.mailService = mailService;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
   }
 
   public DepositService(
@@ -68,12 +75,14 @@ public class DepositService {
       UserRepository userRepository,
       Client mollie,
       TransactionRepository transactionRepository,
-      MailService mailService) {
+      MailService mailService,
+      PlatformTransactionManager transactionManager) {
     this.balanceService = balanceService;
     this.userRepository = userRepository;
     this.mollieClient = mollie;
     this.transactionRepository = transactionRepository;
     this.mailService = mailService;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
   }
 
   /**
@@ -97,45 +106,61 @@ public class DepositService {
   }
 
   /**
-   * Update the status of the transaction
+   * Update the status of the transaction. The payment is fetched from Mollie before anything is
+   * locked, so no database connection is held during the round trip; only the state transition
+   * itself runs under the row lock. Webhooks for a top-up that was already credited, such as
+   * duplicates, return without fetching or locking anything. A failed top-up is still checked,
+   * because it may have been failed for being pending too long before Mollie reported it paid. The
+   * deposit email is queued together with the transition.
    *
-   * @param transactionId the transaction's id
+   * @param transaction the transaction, as last read
    * @return the validated transaction
    */
-  @Transactional
-  public TopupTransaction validateTransaction(UUID transactionId) {
-    TopupTransaction transaction = transactionRepository.findByIdForUpdateTopup(transactionId);
+  public TopupTransaction validateTransaction(TopupTransaction transaction) {
+    if (transaction.getStatus() == Transaction.TransactionStatus.SUCCESSFUL) {
+      return transaction;
+    }
 
+    PaymentStatus mollieStatus;
     try {
-      PaymentResponse pr = mollieClient.payments().getPayment(transaction.getMollieId());
-      switch (pr.getStatus()) {
-        case PENDING -> {
-          transaction.setStatus(Transaction.TransactionStatus.PENDING);
-        }
-        case CANCELED, EXPIRED -> {
-          balanceService.markTopUpAsFailed(transaction);
-          try {
-            mailService.sendDepositFailEmail(transaction, transaction.getAmount());
-          } catch (Exception e) {
-            logger.error("Failed to send deposit fail email for transaction {}", transactionId, e);
-          }
-        }
-        case PAID -> {
-          transaction.setStatus(Transaction.TransactionStatus.SUCCESSFUL);
-          balanceService.markTopUpAsPaid(transaction);
-          try {
-            mailService.sendDepositSuccessEmail(transaction, transaction.getAmount());
-          } catch (Exception e) {
-            logger.error(
-                "Failed to send deposit success email for transaction {}", transactionId, e);
-          }
-        }
-      }
-      return transactionRepository.saveAndFlush(transaction);
+      mollieStatus = mollieClient.payments().getPayment(transaction.getMollieId()).getStatus();
     } catch (MollieException e) {
       handleMollieError(e);
       return transaction;
     }
+
+    return transactionTemplate.execute(status -> applyStatus(transaction.getId(), mollieStatus));
+  }
+
+  /**
+   * Moves a top-up to the status Mollie reported, under a lock on the transaction. A pending top-up
+   * follows any final status; a failed one can only still become paid. A top-up that was credited
+   * by a concurrent webhook in the meantime is left as it is.
+   */
+  private TopupTransaction applyStatus(UUID transactionId, PaymentStatus mollieStatus) {
+    TopupTransaction locked = transactionRepository.findByIdForUpdateTopup(transactionId);
+    boolean settled =
+        switch (locked.getStatus()) {
+          case PENDING -> false;
+          case FAILED -> mollieStatus != PaymentStatus.PAID;
+          default -> true;
+        };
+    if (settled) {
+      return locked;
+    }
+
+    switch (mollieStatus) {
+      case CANCELED, EXPIRED -> {
+        balanceService.markTopUpAsFailed(locked);
+        mailService.sendDepositFailEmail(locked, locked.getAmount());
+      }
+      case PAID -> {
+        balanceService.markTopUpAsPaid(locked);
+        mailService.sendDepositSuccessEmail(locked, locked.getAmount());
+      }
+      default -> {}
+    }
+    return locked;
   }
 
   private void updateTransaction(TopupTransaction transaction, PaymentResponse molliePayment) {
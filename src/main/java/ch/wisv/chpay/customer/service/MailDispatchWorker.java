@@ -0,0 +1,169 @@
+package ch.wisv.chpay.customer.service;
+
+import ch.wisv.chpay.core.model.QueuedMail;
+import ch.wisv.chpay.core.repository.QueuedMailRepository;
+import ch.wisv.chpay.core.service.LeasedQueueWorker;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.MimeMessageHelper;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+@Component
+public class MailDispatchWorker extends LeasedQueueWorker<QueuedMail> {
+
+  private static final Logger logger = LoggerFactory.getLogger(MailDispatchWorker.class);
+
+  private final QueuedMailRepository mailQueue;
+  private final JavaMailSender mailSender;
+
+  /** The logo every email shows inline, read once instead of for every message. */
+  private final ByteArrayResource logo;
+
+  @Value("${spring.mail.username}")
+  private String sender;
+
+  @Value("${chpay.mail.batch_size:50}")
+  private int batchSize;
+
+  @Value("${chpay.mail.lease_seconds:300}")
+  private long leaseSeconds;
+
+  public MailDispatchWorker(
+      QueuedMailRepository mailQueue,
+      JavaMailSender mailSender,
+      PlatformTransactionManager transactionManager) {
+    super(transactionManager);
+    this.mailQueue = mailQueue;
+    this.mailSender = mailSender;
+    try {
+      this.logo =
+          new ByteArrayResource(
+              new ClassPathResource("static/images/ch-logo-small.png").getContentAsByteArray());
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to read the email logo", e);
+    }
+  }
+
+  /**
+   * Schedules a task to send queued emails. Runs every minute and claims up to
+   * chpay.mail.batch_size due emails with a lease of chpay.mail.lease_seconds, see {@link
+   * LeasedQueueWorker}. Each batch is sent over a single connection to the mail server.
+   */
+  @Scheduled(fixedDelay = 60000) // every 60 seconds
+  public void sendQueuedMail() {
+    run();
+  }
+
+  /**
+   * Starts sending an email as soon as the transaction that queued it has committed, instead of at
+   * the next scheduled run.
+   *
+   * @param event the queued email
+   */
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onMailQueued(MailService.MailQueued event) {
+    runAsync();
+  }
+
+  @Override
+  protected int batchSize() {
+    return batchSize;
+  }
+
+  @Override
+  protected Duration lease() {
+    return Duration.ofSeconds(leaseSeconds);
+  }
+
+  @Override
+  protected List<QueuedMail> lockDue(Instant now, int limit) {
+    return mailQueue.lockDue(now, limit);
+  }
+
+  @Override
+  protected void setNextAttempt(QueuedMail mail, Instant nextAttempt) {
+    mail.setNextAttempt(nextAttempt);
+  }
+
+  @Override
+  protected void process(List<QueuedMail> batch) {
+    List<QueuedMail> built = new ArrayList<>(batch.size());
+    List<MimeMessage> messages = new ArrayList<>(batch.size());
+    for (QueuedMail mail : batch) {
+      try {
+        messages.add(toMessage(mail));
+        built.add(mail);
+      } catch (MessagingException e) {
+        failed(mail, e);
+      }
+    }
+
+    Map<Object, Exception> failures = Map.of();
+    try {
+      mailSender.send(messages.toArray(MimeMessage[]::new));
+    } catch (MailSendException e) {
+      failures = e.getFailedMessages();
+    } catch (MailException e) {
+      // Nothing was sent, for instance because the mail server could not be reached.
+      for (QueuedMail mail : built) {
+        failed(mail, e);
+      }
+      mailQueue.saveAll(batch);
+      return;
+    }
+
+    for (int i = 0; i < built.size(); i++) {
+      Exception failure = failures.get(messages.get(i));
+      if (failure != null) {
+        failed(built.get(i), failure);
+      } else {
+        built.get(i).setStatus(QueuedMail.Status.SENT);
+      }
+    }
+    mailQueue.saveAll(batch);
+  }
+
+  private MimeMessage toMessage(QueuedMail mail) throws MessagingException {
+    MimeMessage message = mailSender.createMimeMessage();
+    MimeMessageHelper helper = new MimeMessageHelper(message, true, "UTF-8");
+    helper.setFrom(sender);
+    helper.setTo(mail.getRecipient());
+    helper.setSubject(mail.getSubject());
+    helper.setText(mail.getHtmlBody(), true);
+    helper.addInline(mail.getLogoContentId(), logo, "image/png");
+    return message;
+  }
+
+  private void failed(QueuedMail mail, Exception e) {
+    int retries = mail.getRetryCount() + 1;
+    mail.setRetryCount(retries);
+
+    if (!retryLater(mail, retries)) {
+      mail.setStatus(QueuedMail.Status.FAILED);
+      logger.error(
+          "Failed to send email '{}' to {} after {} attempts",
+          mail.getSubject(),
+          mail.getRecipient(),
+          retries,
+          e);
+    }
+  }
+}
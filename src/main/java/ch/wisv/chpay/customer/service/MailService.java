@@ -1,154 +1,130 @@
 package ch.wisv.chpay.customer.service;
 
+import ch.wisv.chpay.core.model.QueuedMail;
 import ch.wisv.chpay.core.model.transaction.Transaction;
+import ch.wisv.chpay.core.repository.QueuedMailRepository;
 import ch.wisv.chpay.core.repository.TransactionRepository;
-import jakarta.mail.MessagingException;
-import jakarta.mail.internet.MimeMessage;
 import java.math.BigDecimal;
 import java.util.UUID;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.ClassPathResource;
-import org.springframework.mail.MailException;
-import org.springframework.mail.MailSendException;
-import org.springframework.mail.javamail.JavaMailSender;
-import org.springframework.mail.javamail.MimeMessageHelper;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+/**
+ * Renders the emails CHPay sends and puts them in the mail queue. When called inside a database
+ * transaction, an email is only queued, and only sent, if that transaction commits. The {@link
+ * MailDispatchWorker} sends the queued emails.
+ */
 @Service
 public class MailService {
 
-  private static final Logger logger = LoggerFactory.getLogger(MailService.class);
-
-  private final JavaMailSender mailSender;
+  /** Published when an email was queued; listeners that wait for the commit can send it. */
+  public record MailQueued(UUID mailId) {}
+
+  private static final String DEPOSIT_SUCCESS_TEMPLATE =
+      "<html><body>"
+          + "<p>Top-up with value of <strong>%s€</strong> successful!</p>"
+          + "<p>Thank you for using CHPay!</p>"
+          + "<p>---------------------------------------------------</p>"
+          + "<img src='cid:chpayLogo'/>"
+          + "</body></html>";
+
+  private static final String DEPOSIT_FAIL_TEMPLATE =
+      "<html><body>"
+          + "<p>Top-up with value of <strong>%s€</strong> did not go through,"
+          + " please try again!</p>"
+          + "<p>If the problem persists, please contact support.</p>"
+          + "<p>---------------------------------------------------</p>"
+          + "<img src='cid:chpayError'/>"
+          + "</body></html>";
+
+  private static final String RECEIPT_TEMPLATE =
+      """
+        <html>
+            <body style="font-family: Arial, sans-serif;">
+                <div style="max-width: 600px; margin: auto; padding: 20px; border: 1px solid #eee;">
+                    <h2>Transaction Receipt</h2>
+                    <p><strong>Date:</strong> %s</p>
+                    <p><strong>Description:</strong> %s</p>
+                    <p><strong>Total:</strong> €%.2f</p>
+                    <p><strong>Status:</strong> %s</p>
+                    <p>---------------------------------------------------</p>
+                    <img src='cid:chpayError'/>
+                    <hr/>
+                    <p style="font-size: 12px; color: #888;">Thank you for using CHPay.</p>
+                </div>
+            </body>
+        </html>
+        """;
+
+  private final QueuedMailRepository mailQueue;
 
   private final TransactionRepository transactionRepository;
 
-  @Value("${spring.mail.username}")
-  private String sender;
+  private final ApplicationEventPublisher eventPublisher;
 
   @Autowired
-  public MailService(JavaMailSender mailSender, TransactionRepository transactionRepository) {
-    this.mailSender = mailSender;
+  public MailService(
+      QueuedMailRepository mailQueue,
+      TransactionRepository transactionRepository,
+      ApplicationEventPublisher eventPublisher) {
+    this.mailQueue = mailQueue;
     this.transactionRepository = transactionRepository;
+    this.eventPublisher = eventPublisher;
   }
 
   /**
-   * An email for a successful deposit
+   * Queues an email for a successful deposit
    *
    * @param t the transaction
    * @param amount how much they deposited
    */
-  public void sendDepositSuccessEmail(Transaction t, BigDecimal amount) throws MailSendException {
-    String to = t.getUser().getEmail();
-    try {
-      MimeMessage message = mailSender.createMimeMessage();
-      MimeMessageHelper helper = new MimeMessageHelper(message, true, "UTF-8");
-      helper.setFrom(sender);
-      helper.setTo(to);
-      helper.setSubject("[CHPay] Deposit Success");
-
-      String htmlContent =
-          "<html><body>"
-              + "<p>Top-up with value of <strong>"
-              + amount
-              + "€</strong> successful!</p>"
-              + "<p>Thank you for using CHPay!</p>"
-              + "<p>---------------------------------------------------</p>"
-              + "<img src='cid:chpayLogo'/>"
-              + "</body></html>";
-      helper.setText(htmlContent, true);
-
-      ClassPathResource image = new ClassPathResource("static/images/ch-logo-small.png");
-      helper.addInline("chpayLogo", image);
-
-      mailSender.send(message);
-    } catch (MailException | MessagingException e) {
-      throw new MailSendException("Unable to send deposit success email", e.getCause());
-    }
+  @Transactional
+  public void sendDepositSuccessEmail(Transaction t, BigDecimal amount) {
+    enqueue(
+        new QueuedMail(
+            t.getUser().getEmail(),
+            "[CHPay] Deposit Success",
+            DEPOSIT_SUCCESS_TEMPLATE.formatted(amount),
+            "chpayLogo"));
   }
 
   /**
-   * Sends an email for a failed transaction
+   * Queues an email for a failed transaction
    *
    * @param t the transaction
    * @param amount the amount of money deposited
    */
-  public void sendDepositFailEmail(Transaction t, BigDecimal amount) throws MailSendException {
-
-    String to = t.getUser().getEmail();
-    try {
-      MimeMessage message = mailSender.createMimeMessage();
-      MimeMessageHelper helper = new MimeMessageHelper(message, true, "UTF-8");
-      helper.setFrom(sender);
-      helper.setTo(to);
-      helper.setSubject("[CHPay] Deposit Error");
-
-      String htmlContent =
-          "<html><body>"
-              + "<p>Top-up with value of <strong>"
-              + amount
-              + "€</strong> did not go through, please try again!</p>"
-              + "<p>If the problem persists, please contact support.</p>"
-              + "<p>---------------------------------------------------</p>"
-              + "<img src='cid:chpayError'/>"
-              + "</body></html>";
-      helper.setText(htmlContent, true);
-
-      ClassPathResource image = new ClassPathResource("static/images/ch-logo-small.png");
-      helper.addInline("chpayError", image);
-
-      mailSender.send(message);
-    } catch (MailException | MessagingException e) {
-      throw new MailSendException("Unable to send deposit failure email", e.getCause());
-    }
+  @Transactional
+  public void sendDepositFailEmail(Transaction t, BigDecimal amount) {
+    enqueue(
+        new QueuedMail(
+            t.getUser().getEmail(),
+            "[CHPay] Deposit Error",
+            DEPOSIT_FAIL_TEMPLATE.formatted(amount),
+            "chpayError"));
   }
 
   /**
-   * Sends an email with a receipt for the transaction
+   * Queues an email with a receipt for the transaction
    *
    * @param id transaction's id
    */
-  public void sendReceiptByEmail(String id) throws MailSendException {
+  @Transactional
+  public void sendReceiptByEmail(String id) {
     Transaction t = transactionRepository.findById(UUID.fromString(id)).get();
-    String to = t.getUser().getEmail();
-    try {
-      MimeMessage message = mailSender.createMimeMessage();
-      MimeMessageHelper helper = new MimeMessageHelper(message, true, "UTF-8");
-      helper.setFrom(sender);
-      helper.setTo(to);
-      helper.setSubject("[CHPay] Transaction Receipt");
-
-      String htmlContent =
-          String.format(
-              """
-                                        <html>
-                                            <body style="font-family: Arial, sans-serif;">
-                                                <div style="max-width: 600px; margin: auto; padding: 20px; border: 1px solid #eee;">
-                                                    <h2>Transaction Receipt</h2>
-                                                    <p><strong>Date:</strong> %s</p>
-                                                    <p><strong>Description:</strong> %s</p>
-                                                    <p><strong>Total:</strong> €%.2f</p>
-                                                    <p><strong>Status:</strong> %s</p>
-                                                    <p>---------------------------------------------------</p>
-                                                    <img src='cid:chpayError'/>
-                                                    <hr/>
-                                                    <p style="font-size: 12px; color: #888;">Thank you for using CHPay.</p>
-                                                </div>
-                                            </body>
-                                        </html>
-                                    """,
-              t.getTimestamp(), t.getDescription(), t.getAmount(), t.getStatus());
-      helper.setText(htmlContent, true);
-
-      ClassPathResource image = new ClassPathResource("static/images/ch-logo-small.png");
-      helper.addInline("chpayError", image);
+    enqueue(
+        new QueuedMail(
+            t.getUser().getEmail(),
+            "[CHPay] Transaction Receipt",
+            RECEIPT_TEMPLATE.formatted(
+                t.getTimestamp(), t.getDescription(), t.getAmount(), t.getStatus()),
+            "chpayError"));
+  }
 
-      mailSender.send(message);
-    } catch (MailException | MessagingException e) {
-      throw new MailSendException("Unable to send deposit failure email", e.getCause());
-    }
+  private void enqueue(QueuedMail mail) {
+    mailQueue.save(mail);
+    eventPublisher.publishEvent(new MailQueued(mail.getId()));
   }
 }
@@ -1,29 +1,54 @@
 package ch.wisv.chpay.qr.controller;
 
 import ch.wisv.chpay.core.controller.PageController;
+import ch.wisv.chpay.core.dto.RequestPaymentItem;
 import ch.wisv.chpay.core.model.PaymentRequest;
+import ch.wisv.chpay.core.model.transaction.Transaction;
 import ch.wisv.chpay.core.repository.RequestRepository;
-import ch.wisv.chpay.qr.util.QRCodeUtil;
+import ch.wisv.chpay.core.repository.TransactionRepository;
+import ch.wisv.chpay.core.service.TransactionEventHub;
+import ch.wisv.chpay.qr.service.QRCodeService;
 import com.google.zxing.WriterException;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
 import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.UUID;
+import java.util.stream.Collectors;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 @Controller
 @PreAuthorize("hasRole('ADMIN')")
 @RequestMapping("/qr")
 public class QRPageController extends PageController {
 
+  private static final int MIN_SIZE = 64;
+
+  private static final int MAX_SIZE = 2048;
+
   @Autowired RequestRepository requestRepository;
 
+  private final QRCodeService qrCodeService;
+  private final TransactionRepository transactionRepository;
+  private final TransactionEventHub transactionEventHub;
+
   /** Inject the `spring.application.base-url` from application.yml (or from $BASE_URL). */
   @Value("${spring.application.baseurl}")
   private String baseUrl;
@@ -32,36 +57,129 @@ public class QRPageController extends PageController {
    * Constructor for QRPageController.
    *
    * @param requestRepository
+   * @param qrCodeService
+   * @param transactionRepository
+   * @param transactionEventHub
    */
-  public QRPageController(RequestRepository requestRepository) {
+  public QRPageController(
+      RequestRepository requestRepository,
+      QRCodeService qrCodeService,
+      TransactionRepository transactionRepository,
+      TransactionEventHub transactionEventHub) {
     this.requestRepository = requestRepository;
+    this.qrCodeService = qrCodeService;
+    this.transactionRepository = transactionRepository;
+    this.transactionEventHub = transactionEventHub;
   }
 
   /**
-   * Generates a QR code for a given payment request ID and prepares the model with relevant data to
-   * display the QR code along with payment request details on the "qr" page.
+   * Prepares the model with the payment request details to display on the "qr" page. The QR code
+   * itself is loaded by the page from {@link #getQRImage}.
    *
    * @param paymentRequestId the unique identifier of the payment request
    * @param model the model object to supply attributes for rendering the view
    * @return the name of the Thymeleaf template to render, "qr"
-   * @throws IOException if an error occurs while generating the QR code
-   * @throws WriterException if an error occurs in encoding the QR code
    */
-  @GetMapping("/{paymentRequestId}")
-  public String showQR(@PathVariable String paymentRequestId, Model model)
-      throws IOException, WriterException {
-    String paymentURL = baseUrl + "/payment/request/" + paymentRequestId;
-    String qrCodeBase64 = QRCodeUtil.generateQRCodeBase64(paymentURL, 250, 250);
-
+  @GetMapping("/{paymentRequestId:[^.]+}")
+  public String showQR(@PathVariable String paymentRequestId, Model model) {
     PaymentRequest pr =
         requestRepository
             .findById(UUID.fromString(paymentRequestId))
             .orElseThrow(
                 () -> new NoSuchElementException("No such payment request: " + paymentRequestId));
 
-    model.addAttribute(MODEL_ATTR_QR_CODE_BASE64, qrCodeBase64);
     model.addAttribute(MODEL_ATTR_PAYMENT_REQUEST, pr);
     model.addAttribute(MODEL_ATTR_PAYMENT_REQUEST_ID, paymentRequestId);
     return "qr";
   }
+
+  /**
+   * Serves the QR code of a payment request as a PNG or SVG image. The code only encodes the
+   * payment URL of the request, so the image for a request id never changes: it is served from a
+   * cache, with a strong ETag and headers that let the browser keep it indefinitely.
+   *
+   * @param paymentRequestId the unique identifier of the payment request
+   * @param format the image format, "png" or "svg"
+   * @param size the width and height of the image in pixels
+   * @param ec the error correction level, one of L, M, Q and H
+   * @return the image, or 400 Bad Request if the size or error correction level is invalid
+   * @throws IOException if an error occurs while generating the QR code
+   * @throws WriterException if an error occurs in encoding the QR code
+   */
+  @GetMapping("/{paymentRequestId}.{format:png|svg}")
+  public ResponseEntity<byte[]> getQRImage(
+      @PathVariable UUID paymentRequestId,
+      @PathVariable String format,
+      @RequestParam(defaultValue = "250") String size,
+      @RequestParam(defaultValue = "L") String ec)
+      throws IOException, WriterException {
+    // Answered here rather than by an exception, because the exception handlers redirect to the
+    // HTML error page, which an <img> cannot show.
+    int pixels;
+    ErrorCorrectionLevel level;
+    try {
+      pixels = Integer.parseInt(size);
+      level = ErrorCorrectionLevel.valueOf(ec.toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      return ResponseEntity.badRequest().build();
+    }
+    if (pixels < MIN_SIZE || pixels > MAX_SIZE) {
+      return ResponseEntity.badRequest().build();
+    }
+
+    String paymentURL = baseUrl + "/payment/request/" + paymentRequestId;
+    QRCodeService.QRImage image =
+        qrCodeService.render(
+            paymentURL,
+            pixels,
+            level,
+            QRCodeService.Format.valueOf(format.toUpperCase(Locale.ROOT)));
+
+    return ResponseEntity.ok()
+        .contentType(image.format().getMediaType())
+        .eTag(image.etag())
+        .cacheControl(CacheControl.maxAge(Duration.ofDays(365)).cachePrivate().immutable())
+        .body(image.body());
+  }
+
+  /**
+   * Returns the successful payments of a payment request that were paid after the given cursor,
+   * in the order they were paid, for the QR display page to show as notifications. The page passes
+   * the highest cursor it received to only get the new ones. Payments of the last minute are
+   * returned again, see {@link RequestPaymentItem#CURSOR_OVERLAP}, and the page drops those it has
+   * already shown.
+   *
+   * @param paymentRequestId the unique identifier of the payment request
+   * @param after the cursor of the last payment already received, 0 for all payments
+   * @return the new payments
+   */
+  @GetMapping("/{paymentRequestId}/payments")
+  @ResponseBody
+  public List<Map<String, String>> getPayments(
+      @PathVariable UUID paymentRequestId,
+      @RequestParam(name = "after", defaultValue = "0") long after) {
+    return transactionRepository
+        .findPaymentsForRequestAfter(
+            paymentRequestId,
+            Transaction.TransactionStatus.SUCCESSFUL,
+            after,
+            LocalDateTime.now().minus(RequestPaymentItem.CURSOR_OVERLAP))
+        .stream()
+        .map(RequestPaymentItem::toJson)
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Streams an event for every payment of a payment request as it commits, telling the QR display
+   * page to fetch the new payments. It is served with the admin's session, because an EventSource
+   * cannot send the API key that /api requires.
+   *
+   * @param paymentRequestId the unique identifier of the payment request
+   * @return the event stream
+   */
+  @GetMapping(value = "/{paymentRequestId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  @ResponseBody
+  public SseEmitter getPaymentEvents(@PathVariable UUID paymentRequestId) {
+    return transactionEventHub.subscribe(paymentRequestId);
+  }
 }
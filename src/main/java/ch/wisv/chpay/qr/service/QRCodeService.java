@@ -0,0 +1,78 @@
+package ch.wisv.chpay.qr.service;
+
+import ch.wisv.chpay.config.CacheConfig;
+import ch.wisv.chpay.qr.util.QRCodeUtil;
+import com.google.zxing.WriterException;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+
+/** Renders QR code images and keeps the most recently used ones in a bounded cache. */
+@Service
+public class QRCodeService {
+
+  /** The image formats a QR code can be rendered in. */
+  public enum Format {
+    PNG(MediaType.IMAGE_PNG),
+    SVG(MediaType.valueOf("image/svg+xml"));
+
+    private final MediaType mediaType;
+
+    Format(MediaType mediaType) {
+      this.mediaType = mediaType;
+    }
+
+    public MediaType getMediaType() {
+      return mediaType;
+    }
+  }
+
+  /**
+   * A rendered QR code image.
+   *
+   * @param body the image bytes
+   * @param etag a strong entity tag, derived from the bytes
+   * @param format the format of the image
+   */
+  public record QRImage(byte[] body, String etag, Format format) {}
+
+  /**
+   * Renders a QR code image. The result only depends on the arguments, so it is cached by them.
+   *
+   * @param content the content to encode into the QR code
+   * @param size the width and height of the image in pixels
+   * @param level the error correction level to encode with
+   * @param format the image format
+   * @return the rendered image
+   * @throws WriterException if an error occurs while encoding the content into a QR code
+   * @throws IOException if an error occurs during the creation of the image
+   */
+  @Cacheable(
+      value = CacheConfig.QR_CODES,
+      key = "{#content, #size, #level, #format}",
+      sync = true)
+  public QRImage render(String content, int size, ErrorCorrectionLevel level, Format format)
+      throws WriterException, IOException {
+    byte[] body =
+        switch (format) {
+          case PNG -> QRCodeUtil.generateQRCodePng(content, size, level);
+          case SVG ->
+              QRCodeUtil.generateQRCodeSvg(content, size, level).getBytes(StandardCharsets.UTF_8);
+        };
+    return new QRImage(body, "\"" + sha256(body) + "\"", format);
+  }
+
+  private static String sha256(byte[] body) {
+    try {
+      return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(body));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+}
@@ -1,34 +1,84 @@
 package ch.wisv.chpay.qr.util;
 
 import com.google.zxing.BarcodeFormat;
+import com.google.zxing.EncodeHintType;
 import com.google.zxing.WriterException;
 import com.google.zxing.client.j2se.MatrixToImageWriter;
 import com.google.zxing.common.BitMatrix;
 import com.google.zxing.qrcode.QRCodeWriter;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.Base64;
+import java.util.Map;
 
 public class QRCodeUtil {
 
   /**
-   * Generates a Base64-encoded QR code image for the given text with the specified width and
-   * height.
+   * Generates a PNG QR code image for the given text with the specified size.
    *
    * @param text the content to encode into the QR code
-   * @param width the desired width of the QR code image in pixels
-   * @param height the desired height of the QR code image in pixels
-   * @return a Base64-encoded string representing the QR code image
+   * @param size the desired width and height of the QR code image in pixels
+   * @param level the error correction level to encode with
+   * @return the PNG image
    * @throws WriterException if an error occurs while encoding the text into a QR code
    * @throws IOException if an error occurs during the creation of the QR code image
    */
-  public static String generateQRCodeBase64(String text, int width, int height)
+  public static byte[] generateQRCodePng(String text, int size, ErrorCorrectionLevel level)
       throws WriterException, IOException {
-    QRCodeWriter qrCodeWriter = new QRCodeWriter();
-    BitMatrix bitMatrix = qrCodeWriter.encode(text, BarcodeFormat.QR_CODE, width, height);
+    BitMatrix bitMatrix = encode(text, size, level);
     ByteArrayOutputStream pngOutputStream = new ByteArrayOutputStream();
     MatrixToImageWriter.writeToStream(bitMatrix, "PNG", pngOutputStream);
-    byte[] pngData = pngOutputStream.toByteArray();
-    return Base64.getEncoder().encodeToString(pngData);
+    return pngOutputStream.toByteArray();
+  }
+
+  /**
+   * Generates an SVG QR code image for the given text with the specified size. The code is drawn
+   * as a single path with one unit per module, so no raster image is produced at all and the image
+   * scales to any size without blurring.
+   *
+   * @param text the content to encode into the QR code
+   * @param size the desired width and height of the QR code image in pixels
+   * @param level the error correction level to encode with
+   * @return the SVG document
+   * @throws WriterException if an error occurs while encoding the text into a QR code
+   */
+  public static String generateQRCodeSvg(String text, int size, ErrorCorrectionLevel level)
+      throws WriterException {
+    // A size of zero yields one pixel per module, including the quiet zone.
+    BitMatrix modules = encode(text, 0, level);
+    int width = modules.getWidth();
+    int height = modules.getHeight();
+
+    // Every run of dark modules in a row becomes one rectangle of the path.
+    StringBuilder path = new StringBuilder();
+    for (int y = 0; y < height; y++) {
+      int x = 0;
+      while (x < width) {
+        if (!modules.get(x, y)) {
+          x++;
+          continue;
+        }
+        int start = x;
+        while (x < width && modules.get(x, y)) {
+          x++;
+        }
+        int run = x - start;
+        path.append('M').append(start).append(' ').append(y);
+        path.append('h').append(run).append("v1h-").append(run).append('z');
+      }
+    }
+
+    return String.format(
+        "<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"%d\" height=\"%d\""
+            + " viewBox=\"0 0 %d %d\" shape-rendering=\"crispEdges\">"
+            + "<rect width=\"%d\" height=\"%d\" fill=\"#fff\"/>"
+            + "<path fill=\"#000\" d=\"%s\"/></svg>",
+        size, size, width, height, width, height, path);
+  }
+
+  private static BitMatrix encode(String text, int size, ErrorCorrectionLevel level)
+      throws WriterException {
+    Map<EncodeHintType, Object> hints = Map.of(EncodeHintType.ERROR_CORRECTION, level);
+    return new QRCodeWriter().encode(text, BarcodeFormat.QR_CODE, size, size, hints);
   }
 }
@@ -9,7 +9,16 @@
     }
     const requestId = window.paymentRequestId;
 
-    // Keep track of seen transactions
+    // Highest cursor seen; each poll asks for the payments after it, plus those of the last minute
+    // in case one of them committed after a payment with a higher cursor
+    let cursor = 0;
+
+    // Only one poll runs at a time, so overlapping polls never ask for the same cursor; a poll
+    // requested while one runs is done right after it
+    let polling = false;
+    let pollAgain = false;
+
+    // Payments already shown, since recent payments are returned again on every poll
     const seenTxIds = new Set();
 
     function showNotification(payerName, amount) {
@@ -24,7 +33,13 @@
 
     // Poll for new query results
     function pollPayments() {
-        fetch(`/api/requests/${requestId}/successful-payments`, {
+        if (polling) {
+            pollAgain = true;
+            return;
+        }
+        polling = true;
+
+        fetch(`/qr/${requestId}/payments?after=${cursor}`, {
             credentials: "same-origin" // ensure cookies/session are sent
         })
             .then(response => {
@@ -34,31 +49,41 @@
                 return response.json();
             })
             .then(payments => {
-                // payments is an array: [{ transactionId, payerName, amount, timestamp }, …]
+                // payments is an array of new payments: [{ transactionId, payerName, amount, timestamp, cursor }, …]
                 payments.forEach(payment => {
-                    const txId = payment.transactionId;
-                    if (!seenTxIds.has(txId)) {
-                        // New payment: show a notification
-                        showNotification(payment.payerName, payment.amount);
-                        seenTxIds.add(txId);
+                    cursor = Math.max(cursor, Number(payment.cursor));
+                    if (seenTxIds.has(payment.transactionId)) {
+                        return;
+                    }
+                    seenTxIds.add(payment.transactionId);
 
-                        if (!isMultiUse) {
-                            setTimeout(() => {
-                                window.location.href = "/admin/createPaymentRequest";
-                            }, 7000);
-                            return;
-                        }
+                    // New payment: show a notification
+                    showNotification(payment.payerName, payment.amount);
+
+                    if (!isMultiUse) {
+                        setTimeout(() => {
+                            window.location.href = "/admin/createPaymentRequest";
+                        }, 7000);
                     }
                 });
             })
             .catch(err => {
                 console.error("qr.js polling error:", err);
+            })
+            .finally(() => {
+                polling = false;
+                if (pollAgain) {
+                    pollAgain = false;
+                    pollPayments();
+                }
             });
     }
 
-    // Poll for every 5 seconds
+    // Fetch new payments whenever the server announces one, and every 30 seconds in case an
+    // announcement was missed while reconnecting
     document.addEventListener("DOMContentLoaded", () => {
-        pollPayments();                       // populate seenTxIds on load
-        setInterval(pollPayments, 5000);
+        pollPayments();                       // populate cursor on load
+        new EventSource(`/qr/${requestId}/events`).addEventListener("status", pollPayments);
+        setInterval(pollPayments, 30000);
     });
 })();